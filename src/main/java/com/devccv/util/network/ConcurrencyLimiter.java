@@ -0,0 +1,135 @@
+package com.devccv.util.network;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 自适应并发限制（AIMD）<br>
+ * 限制对同一服务器同时进行的请求数：请求成功且延迟接近基准延迟时缓慢增加上限（每个完整窗口加1），
+ * 请求失败或延迟超过基准的 tolerance 倍时按 backoffRatio 成倍降低上限；
+ * 每个窗口最多降低一次：只有在上次降低之后才开始的请求能再次降低上限，同一批请求一起超时只算一次过载<br>
+ * 基准延迟取观测到的最小延迟，并随后续延迟缓慢上移，服务器整体变慢后不会一直压低上限；
+ * 不同类型的请求（如只取一条记录的检查与完整查询）响应大小相差很大，各自维护基准延迟，只与同类请求比较<br>
+ * 失败的请求只作为过载信号降低上限，它的耗时（通常是超时时间）不参与延迟比较
+ */
+public class ConcurrencyLimiter {
+    /**
+     * 基准延迟向当前延迟靠拢的比例
+     */
+    private static final double BASELINE_DRIFT = 0.01;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoffRatio;
+    private double limit;
+    private int inFlight = 0;
+    /**
+     * 请求类型到基准延迟（纳秒）
+     */
+    private final Map<String, Double> baselineNanos = new LinkedHashMap<>();
+    private long drops = 0;
+    /**
+     * 上次降低上限的时间，在此之前开始的请求不再降低上限
+     */
+    private long lastDropNanos = System.nanoTime();
+
+    /**
+     * @param initialLimit 初始上限
+     * @param minLimit     上限的最小值，至少为1
+     * @param maxLimit     上限的最大值
+     * @param tolerance    延迟超过基准的多少倍时视为过载
+     * @param backoffRatio 过载时上限乘以的系数，0到1之间
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double backoffRatio) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * 等待直到同时进行的请求数低于当前上限
+     *
+     * @return 请求开始的时间，请求结束后传给 {@link #release(long, boolean)}
+     */
+    public synchronized long acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * 请求结束，按本次请求的结果调整上限，所有请求视为同一类型
+     *
+     * @param start   {@link #acquire()} 的返回值
+     * @param success 是否成功收到响应，网络错误与超时为false
+     */
+    public void release(long start, boolean success) {
+        release(start, success, "");
+    }
+
+    /**
+     * 请求结束，按本次请求的结果调整上限
+     *
+     * @param start   {@link #acquire()} 的返回值
+     * @param success 是否成功收到响应，网络错误与超时为false
+     * @param kind    请求类型，延迟只与同类型请求的基准比较
+     */
+    public synchronized void release(long start, boolean success, String kind) {
+        long rtt = System.nanoTime() - start;
+        int concurrent = inFlight--;
+        boolean overloaded;
+        if (!success) {
+            overloaded = true;
+        } else {
+            double baseline = baselineNanos.getOrDefault(kind, 0.0);
+            overloaded = baseline > 0 && rtt > baseline * tolerance;
+            if (baseline == 0 || rtt < baseline) {
+                baselineNanos.put(kind, (double) rtt);
+            } else {
+                baselineNanos.put(kind, baseline + (rtt - baseline) * BASELINE_DRIFT);
+            }
+        }
+        if (overloaded) {
+            if (start - lastDropNanos > 0) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDropNanos = System.nanoTime();
+                drops++;
+            }
+        } else if (concurrent * 2 >= limit) {
+            //只有上限确实被用到一半以上时才增加，空闲时的快速响应不能说明服务器还能承受更多请求
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return 当前允许同时进行的请求数
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return 因失败或延迟升高而降低上限的次数
+     */
+    public synchronized long getDrops() {
+        return drops;
+    }
+
+    /**
+     * @return 每种请求的基准延迟（毫秒）
+     */
+    public synchronized Map<String, Double> getBaselineMillis() {
+        Map<String, Double> millis = new LinkedHashMap<>();
+        baselineNanos.forEach((kind, nanos) -> millis.put(kind, nanos / 1e6));
+        return millis;
+    }
+}
@@ -1,5 +1,5 @@
 package com.devccv.util.network;
 
 enum HTTP_METHOD {
-    GET, POST,
+    GET, POST, HEAD,
 }
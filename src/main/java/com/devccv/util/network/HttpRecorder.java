@@ -0,0 +1,138 @@
+package com.devccv.util.network;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 将SimpleHttps发出的请求及其响应记录到文件，供 {@link HttpReplayer} 离线回放<br>
+ * 文件为GZIP压缩的二进制格式，每条记录依次为：方法、URL、请求主体、响应、错误信息、耗时（纳秒）<br>
+ * URL中的密钥（企业微信的corpsecret与access_token、Telegram的bot token）在写入前替换为 {@value #REDACTED}，
+ * 记录文件可以直接分享
+ */
+public class HttpRecorder implements Closeable {
+    private static final int MAGIC = 0x48525231; //HRR1
+    static final String REDACTED = "REDACTED";
+    private static final Set<String> SECRET_PARAMETERS = Set.of("corpsecret", "access_token");
+    private static final Pattern BOT_TOKEN = Pattern.compile("/bot[^/?]+");
+    private final DataOutputStream out;
+
+    /**
+     * 一次请求与响应
+     *
+     * @param method       请求方法
+     * @param url          请求地址
+     * @param requestBody  请求主体，没有时为null
+     * @param response     响应主体，请求失败时为null
+     * @param errorMsg     请求失败时的错误信息
+     * @param elapsedNanos 请求耗时
+     */
+    public record Exchange(String method, String url, byte[] requestBody, String response, String errorMsg,
+                           long elapsedNanos) {
+    }
+
+    /**
+     * @param file 记录文件，已存在时覆盖
+     */
+    public HttpRecorder(Path file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file), true)));
+        out.writeInt(MAGIC);
+    }
+
+    /**
+     * 追加一条记录，每条记录写入后立即刷新，进程意外退出时已记录的内容仍然可读
+     */
+    public synchronized void record(Exchange exchange) {
+        try {
+            out.writeUTF(exchange.method());
+            writeBytes(redact(exchange.url()).getBytes(StandardCharsets.UTF_8));
+            writeBytes(exchange.requestBody());
+            writeBytes(exchange.response() == null ? null : exchange.response().getBytes(StandardCharsets.UTF_8));
+            writeBytes(exchange.errorMsg() == null ? null : exchange.errorMsg().getBytes(StandardCharsets.UTF_8));
+            out.writeLong(exchange.elapsedNanos());
+            out.flush();
+        } catch (IOException e) {
+            //记录失败不影响请求
+        }
+    }
+
+    /**
+     * 替换URL中的密钥，回放时对请求地址做同样的处理后再匹配
+     */
+    public static String redact(String url) {
+        int query = url.indexOf('?');
+        String path = query < 0 ? url : url.substring(0, query);
+        StringBuilder redacted = new StringBuilder(BOT_TOKEN.matcher(path).replaceFirst("/bot" + REDACTED));
+        if (query < 0) return redacted.toString();
+        char separator = '?';
+        for (String pair : url.substring(query + 1).split("&", -1)) {
+            int eq = pair.indexOf('=');
+            redacted.append(separator);
+            if (eq >= 0 && SECRET_PARAMETERS.contains(pair.substring(0, eq))) {
+                redacted.append(pair, 0, eq + 1).append(REDACTED);
+            } else {
+                redacted.append(pair);
+            }
+            separator = '&';
+        }
+        return redacted.toString();
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * 读取记录文件中的全部记录
+     */
+    public static List<Exchange> read(Path file) throws IOException {
+        List<Exchange> exchanges = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a recording file: " + file);
+            }
+            while (true) {
+                String method;
+                try {
+                    method = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                String url = new String(readBytes(in), StandardCharsets.UTF_8);
+                byte[] requestBody = readBytes(in);
+                byte[] response = readBytes(in);
+                byte[] errorMsg = readBytes(in);
+                long elapsedNanos = in.readLong();
+                exchanges.add(new Exchange(method, url, requestBody,
+                        response == null ? null : new String(response, StandardCharsets.UTF_8),
+                        errorMsg == null ? null : new String(errorMsg, StandardCharsets.UTF_8), elapsedNanos));
+            }
+        } catch (EOFException e) {
+            //最后一条记录不完整，忽略
+        }
+        return exchanges;
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        return in.readNBytes(length);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,88 @@
+package com.devccv.util.network;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用 {@link HttpRecorder} 的记录代替网络请求<br>
+ * 以请求方法和URL匹配记录，同一请求的多条记录按记录顺序依次返回；
+ * URL中每次都会变化的查询参数（如access_token、推送文本）在匹配时被忽略；
+ * 请求地址先按 {@link HttpRecorder#redact(String)} 替换密钥，与记录中的地址一致
+ */
+public class HttpReplayer {
+    private final Map<String, List<HttpRecorder.Exchange>> exchanges = new HashMap<>();
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final Set<String> ignoredParameters;
+    private final boolean loop;
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param exchanges         记录
+     * @param ignoredParameters 匹配时忽略的查询参数名
+     * @param loop              同一请求的记录用完后是否从头开始
+     */
+    public HttpReplayer(List<HttpRecorder.Exchange> exchanges, Set<String> ignoredParameters, boolean loop) {
+        this.ignoredParameters = ignoredParameters;
+        this.loop = loop;
+        for (HttpRecorder.Exchange exchange : exchanges) {
+            this.exchanges.computeIfAbsent(key(exchange.method(), exchange.url()), k -> new ArrayList<>()).add(exchange);
+        }
+    }
+
+    /**
+     * @return 下一条匹配的记录，没有时返回表示失败的结果
+     */
+    RequestResult replay(HTTP_METHOD method, String url) {
+        String key = key(method.name(), url);
+        HttpRecorder.Exchange exchange;
+        synchronized (this) {
+            List<HttpRecorder.Exchange> list = exchanges.get(key);
+            int position = positions.getOrDefault(key, 0);
+            if (list == null || (position >= list.size() && !loop)) {
+                misses.incrementAndGet();
+                return new RequestResult(new IOException("No recorded exchange for " + key));
+            }
+            exchange = list.get(position % list.size());
+            positions.put(key, position + 1);
+        }
+        if (exchange.response() == null) {
+            return new RequestResult(new IOException(exchange.errorMsg()));
+        }
+        return new RequestResult(exchange.response(), null);
+    }
+
+    /**
+     * @return 没有匹配记录的请求数
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return 还有未回放记录的请求数，循环回放时总为记录中不同请求的数量
+     */
+    public synchronized int remaining() {
+        int remaining = 0;
+        for (Map.Entry<String, List<HttpRecorder.Exchange>> entry : exchanges.entrySet()) {
+            if (loop || positions.getOrDefault(entry.getKey(), 0) < entry.getValue().size()) remaining++;
+        }
+        return remaining;
+    }
+
+    private String key(String method, String url) {
+        url = HttpRecorder.redact(url);
+        int query = url.indexOf('?');
+        if (query < 0) return method + " " + url;
+        StringBuilder key = new StringBuilder(method).append(' ').append(url, 0, query);
+        char separator = '?';
+        for (String pair : url.substring(query + 1).split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            if (ignoredParameters.contains(name)) continue;
+            key.append(separator).append(pair);
+            separator = '&';
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package com.devccv.util.network;
+
+import jdk.jfr.*;
+
+import java.net.URI;
+import java.util.regex.Pattern;
+
+/**
+ * 一次 {@link SimpleHttps} 请求的JFR事件<br>
+ * 地址中可能带有凭据：查询参数中的 access_token / corpsecret，路径中的Telegram机器人token，
+ * 因此只记录主机和脱敏后的路径（不像普通名称的路径段替换为*），出错时只记录异常类型，异常信息中通常包含完整地址
+ */
+@Name("com.devccv.HttpRequest")
+@Label("HTTP Request")
+@Category({"GradeReminder", "Network"})
+@Description("A request sent by SimpleHttps")
+@StackTrace(false)
+final class HttpRequestEvent extends Event {
+    private static final Pattern PLAIN_SEGMENT = Pattern.compile("[A-Za-z][A-Za-z_.-]{0,31}");
+    @Label("Method")
+    String method;
+    @Label("Host")
+    String host;
+    @Label("Path")
+    @Description("Path with segments that may hold credentials replaced by *, without query parameters")
+    String path;
+    @Label("Request Bytes")
+    @DataAmount
+    long requestBytes;
+    @Label("Response Chars")
+    @Description("Length of the decoded response body")
+    long responseChars;
+    @Label("Success")
+    boolean success;
+    @Label("Error")
+    @Description("Exception class of a failed request")
+    String error;
+    @Label("Replayed")
+    @Description("Answered from a recording instead of the network")
+    boolean replayed;
+
+    /**
+     * 在确定需要记录时填写字段并提交，未启用该事件时几乎没有开销
+     */
+    void commit(HTTP_METHOD method, String url, byte[] postData, RequestResult result, boolean replayed) {
+        end();
+        if (!shouldCommit()) return;
+        this.method = method.name();
+        setAddress(url);
+        this.requestBytes = postData == null ? 0 : postData.length;
+        this.responseChars = result.getResponse() == null ? 0 : result.getResponse().length();
+        this.success = result.isSucceed();
+        this.error = result.isSucceed() || result.getException() == null ? null : result.getException().getClass().getName();
+        this.replayed = replayed;
+        commit();
+    }
+
+    private void setAddress(String url) {
+        try {
+            URI uri = URI.create(url);
+            this.host = uri.getHost();
+            this.path = redact(uri.getRawPath());
+        } catch (IllegalArgumentException e) {
+            this.host = null;
+            this.path = null;
+        }
+    }
+
+    /**
+     * 只保留由字母开头、不含数字的普通路径段，其余替换为*
+     */
+    static String redact(String path) {
+        if (path == null) return null;
+        String[] segments = path.split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            if (!segments[i].isEmpty() && !PLAIN_SEGMENT.matcher(segments[i]).matches()) segments[i] = "*";
+        }
+        return String.join("/", segments);
+    }
+}
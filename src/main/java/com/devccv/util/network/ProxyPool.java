@@ -0,0 +1,301 @@
+package com.devccv.util.network;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 代理池，把请求分散到多个HTTP/SOCKS代理上，突破服务器按IP的频率限制<br>
+ * 每个学号固定使用一个代理，复用该代理上的Keep-Alive连接，直到经由这个代理的请求失败或代理被剔除时才重新选择；
+ * 选择时取 (已分配的学号数+1)×平均延迟 最小的可用代理，学号均匀分散到池中，延迟低的代理分到更多学号。
+ * 连续失败 maxFailures 次的代理被暂时剔除，剔除时间随连续剔除次数翻倍；
+ * 后台定期通过每个代理预热所有使用代理池的目标主机，全部成功后恢复被剔除的代理；不需要查询的时段暂停检查。
+ * 健康检查只是HEAD请求，它的延迟单独统计，不参与查询请求的平均延迟<br>
+ * <br>
+ * 配置项 proxyPool：
+ * <pre>
+ * "proxyPool": {"proxies": ["http://127.0.0.1:8080", "socks://127.0.0.1:1080"], "includeDirect": false,
+ *               "healthCheckInterval": 30000, "maxFailures": 3, "ejectTime": 30000}
+ * </pre>
+ */
+public class ProxyPool implements AutoCloseable {
+    private static final long DEFAULT_HEALTH_CHECK_INTERVAL = 30000;
+    private static final int DEFAULT_MAX_FAILURES = 3;
+    private static final long DEFAULT_EJECT_TIME = 30000;
+    /**
+     * 剔除时间翻倍的上限
+     */
+    private static final long MAX_EJECT_TIME = 10 * 60 * 1000L;
+    /**
+     * 平均延迟中最新一次请求的权重
+     */
+    private static final double LATENCY_WEIGHT = 0.2;
+    private final List<Member> members = new ArrayList<>();
+    /**
+     * 每个学号当前固定使用的代理
+     */
+    private final Map<String, Member> assigned = new HashMap<>();
+    private final long healthCheckInterval;
+    private final int maxFailures;
+    private final long ejectTime;
+    private ScheduledExecutorService healthChecker;
+
+    public static final class Member {
+        private final String name;
+        private final Proxy proxy;
+        private double latencyNanos = 0;
+        private int consecutiveFailures = 0;
+        private int ejections = 0;
+        private long ejectedUntil = 0;
+        private long requests = 0;
+        private long failures = 0;
+        /**
+         * 固定使用这个代理的学号数
+         */
+        private int students = 0;
+        /**
+         * 健康检查的统计，与查询请求分开
+         */
+        private double checkLatencyNanos = 0;
+        private long checks = 0;
+        private long checkFailures = 0;
+
+        private Member(String name, Proxy proxy) {
+            this.name = name;
+            this.proxy = proxy;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Proxy getProxy() {
+            return proxy;
+        }
+    }
+
+    private ProxyPool(JSONObject config) {
+        this.healthCheckInterval = config.optLong("healthCheckInterval", DEFAULT_HEALTH_CHECK_INTERVAL);
+        this.maxFailures = Math.max(1, config.optInt("maxFailures", DEFAULT_MAX_FAILURES));
+        this.ejectTime = config.optLong("ejectTime", DEFAULT_EJECT_TIME);
+        JSONArray proxies = config.optJSONArray("proxies");
+        if (proxies != null) {
+            for (int i = 0; i < proxies.length(); i++) {
+                String spec = proxies.getString(i);
+                members.add(new Member(spec, parse(spec)));
+            }
+        }
+        if (config.optBoolean("includeDirect", false)) {
+            members.add(new Member("direct", Proxy.NO_PROXY));
+        }
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("proxyPool has no proxies");
+        }
+    }
+
+    /**
+     * @param config 配置项 proxyPool
+     * @return 代理池，未配置时返回null
+     */
+    public static ProxyPool fromConfig(JSONObject config) {
+        return config == null ? null : new ProxyPool(config);
+    }
+
+    /**
+     * 解析形如 http://host:port 或 socks://host:port 的代理地址
+     */
+    private static Proxy parse(String spec) {
+        URI uri = URI.create(spec);
+        if (uri.getHost() == null || uri.getPort() < 0) {
+            throw new IllegalArgumentException("Invalid proxy " + spec);
+        }
+        Proxy.Type type = switch (uri.getScheme() == null ? "" : uri.getScheme().toLowerCase()) {
+            case "http", "https" -> Proxy.Type.HTTP;
+            case "socks", "socks5", "socks4" -> Proxy.Type.SOCKS;
+            default -> throw new IllegalArgumentException("Unsupported proxy type " + spec);
+        };
+        return new Proxy(type, InetSocketAddress.createUnresolved(uri.getHost(), uri.getPort()));
+    }
+
+    /**
+     * 返回学号固定使用的代理；还没有分配或该代理已被剔除时重新选择
+     *
+     * @param key 学号的唯一标识，例如 接口名/学号
+     */
+    public synchronized Member select(String key) {
+        Member current = assigned.get(key);
+        if (current != null && current.ejectedUntil <= System.currentTimeMillis()) return current;
+        Member chosen = choose();
+        if (current != null) current.students--;
+        chosen.students++;
+        assigned.put(key, chosen);
+        return chosen;
+    }
+
+    /**
+     * 选择 (已分配的学号数+1)×平均延迟 最小的可用代理；全部被剔除时选择最早恢复的那个
+     */
+    private Member choose() {
+        long now = System.currentTimeMillis();
+        //还没有延迟数据的代理按当前最快的计算，保证新代理也能分到学号
+        double fastest = Double.MAX_VALUE;
+        for (Member member : members) {
+            if (member.latencyNanos > 0) fastest = Math.min(fastest, member.latencyNanos);
+        }
+        if (fastest == Double.MAX_VALUE) fastest = 1;
+        Member selected = null;
+        double lowestCost = Double.MAX_VALUE;
+        for (Member member : members) {
+            if (member.ejectedUntil > now) continue;
+            double cost = (member.students + 1) * (member.latencyNanos > 0 ? member.latencyNanos : fastest);
+            if (cost < lowestCost) {
+                lowestCost = cost;
+                selected = member;
+            }
+        }
+        if (selected != null) return selected;
+        Member soonest = members.get(0);
+        for (Member member : members) {
+            if (member.ejectedUntil < soonest.ejectedUntil) soonest = member;
+        }
+        return soonest;
+    }
+
+    /**
+     * 反馈一次经由代理的查询请求结果
+     *
+     * @param key          发送请求的学号，与 {@link #select(String)} 相同
+     * @param elapsedNanos 请求耗时，只在成功时参与平均延迟
+     */
+    public synchronized void report(Member member, String key, boolean success, long elapsedNanos) {
+        member.requests++;
+        if (success) {
+            member.latencyNanos = average(member.latencyNanos, elapsedNanos);
+            member.consecutiveFailures = 0;
+            return;
+        }
+        member.failures++;
+        //请求失败后这个学号下次重新选择代理
+        if (assigned.remove(key, member)) member.students--;
+        countFailure(member);
+    }
+
+    private static double average(double average, long sample) {
+        return average == 0 ? sample : average * (1 - LATENCY_WEIGHT) + sample * LATENCY_WEIGHT;
+    }
+
+    /**
+     * 连续失败达到 maxFailures 次时剔除代理
+     */
+    private void countFailure(Member member) {
+        if (++member.consecutiveFailures >= maxFailures && member.ejectedUntil <= System.currentTimeMillis()) {
+            member.ejections++;
+            long duration = Math.min(MAX_EJECT_TIME, ejectTime << Math.min(member.ejections - 1, 20));
+            member.ejectedUntil = System.currentTimeMillis() + duration;
+            member.consecutiveFailures = 0;
+            System.out.println("Proxy " + member.name + " ejected for " + duration / 1000 + "s");
+        }
+    }
+
+    /**
+     * 开始定期检查所有代理，包括被剔除的代理
+     *
+     * @param urls   经由代理预热的目标地址，即所有经由代理池查询的接口
+     * @param active 返回false时跳过本次检查，例如不在任何查询窗口内时
+     */
+    public synchronized void startHealthCheck(Collection<String> urls, BooleanSupplier active) {
+        if (healthChecker != null || healthCheckInterval <= 0 || urls.isEmpty()) return;
+        //同一主机只检查一次
+        Map<String, String> byAuthority = new LinkedHashMap<>();
+        for (String url : urls) {
+            byAuthority.putIfAbsent(URI.create(url).getAuthority(), url);
+        }
+        List<String> targets = List.copyOf(byAuthority.values());
+        healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "proxy-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(() -> {
+            if (active.getAsBoolean()) checkAll(targets);
+        }, 0, healthCheckInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkAll(List<String> urls) {
+        List<Member> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(members);
+        }
+        for (Member member : snapshot) {
+            long start = System.nanoTime();
+            //代理必须能到达每个目标主机才算健康
+            boolean success = true;
+            for (String url : urls) {
+                success &= SimpleHttps.prewarm(url, member.proxy).isSucceed();
+            }
+            long elapsed = (System.nanoTime() - start) / urls.size();
+            synchronized (this) {
+                member.checks++;
+                if (success) {
+                    member.checkLatencyNanos = average(member.checkLatencyNanos, elapsed);
+                    member.consecutiveFailures = 0;
+                    if (member.ejectedUntil > System.currentTimeMillis()) {
+                        member.ejectedUntil = 0;
+                        member.ejections = 0;
+                        System.out.println("Proxy " + member.name + " restored");
+                    }
+                } else {
+                    member.checkFailures++;
+                    countFailure(member);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 每个代理的状态
+     */
+    public synchronized JSONArray metrics() {
+        JSONArray array = new JSONArray();
+        long now = System.currentTimeMillis();
+        for (Member member : members) {
+            array.put(new JSONObject()
+                    .put("proxy", member.name)
+                    .put("healthy", member.ejectedUntil <= now)
+                    .put("latencyMillis", member.latencyNanos / 1e6)
+                    .put("requests", member.requests)
+                    .put("failures", member.failures)
+                    .put("students", member.students)
+                    .put("checkLatencyMillis", member.checkLatencyNanos / 1e6)
+                    .put("checks", member.checks)
+                    .put("checkFailures", member.checkFailures)
+                    .put("ejections", member.ejections));
+        }
+        return array;
+    }
+
+    /**
+     * @return 形如 Proxies: 2/3 healthy 的一行摘要
+     */
+    public synchronized String summary() {
+        long now = System.currentTimeMillis();
+        int healthy = 0;
+        for (Member member : members) {
+            if (member.ejectedUntil <= now) healthy++;
+        }
+        return "Proxies: " + healthy + "/" + members.size() + " healthy";
+    }
+
+    @Override
+    public synchronized void close() {
+        if (healthChecker != null) healthChecker.shutdownNow();
+    }
+}
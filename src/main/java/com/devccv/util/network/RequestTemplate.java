@@ -0,0 +1,43 @@
+package com.devccv.util.network;
+
+import java.net.Proxy;
+import java.net.URL;
+
+/**
+ * 预先编译的请求，由 {@link SimpleHttps#compilePOST(SimpleHttps.Argument)} 等方法创建<br>
+ * 地址只解析一次，默认请求头与自定义请求头合并为有序数组，创建后不可修改，可以在线程间共享并反复发送；
+ * 用 {@link SimpleHttps#send(RequestTemplate)} 发送时，每次请求只需要设置请求头与读取响应
+ */
+public final class RequestTemplate {
+    final HTTP_METHOD method;
+    final String urlString;
+    final URL url;
+    /**
+     * 请求头的名称与值交替排列
+     */
+    final String[] headers;
+    final byte[] postData;
+    final Proxy proxy;
+    final int connectTimeout;
+    final int readTimeout;
+
+    RequestTemplate(HTTP_METHOD method, String urlString, URL url, String[] headers, byte[] postData, Proxy proxy,
+                    int connectTimeout, int readTimeout) {
+        this.method = method;
+        this.urlString = urlString;
+        this.url = url;
+        this.headers = headers;
+        this.postData = postData;
+        this.proxy = proxy;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    public String getUrl() {
+        return urlString;
+    }
+
+    public Proxy getProxy() {
+        return proxy;
+    }
+}
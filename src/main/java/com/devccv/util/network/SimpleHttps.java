@@ -1,17 +1,39 @@
 package com.devccv.util.network;
 
-import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.*;
 import java.io.*;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.*;
 
 public class SimpleHttps {
     private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/110.0.0.0 Safari/537.36";
+    /**
+     * TLS会话缓存大小与有效期（秒），会话恢复可以省去完整握手
+     */
+    private static final int SESSION_CACHE_SIZE = 256;
+    private static final int SESSION_TIMEOUT = 24 * 60 * 60;
+    /**
+     * 发送预编译请求时每个线程复用的响应缓冲区，超过上限的缓冲区用完即丢弃
+     */
+    private static final int RESPONSE_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_RETAINED_RESPONSE_BUFFER = 1024 * 1024;
+    private static final ThreadLocal<byte[]> RESPONSE_BUFFER = ThreadLocal.withInitial(() -> new byte[RESPONSE_BUFFER_SIZE]);
+    /**
+     * 受管理的SSLSocketFactory，为null时使用JDK默认值<br>
+     * 所有连接共享同一个实例：Keep-Alive连接缓存以SSLSocketFactory区分，实例不同的连接无法互相复用
+     */
+    private static volatile SSLSocketFactory sslSocketFactory;
+    private static volatile HostnameVerifier hostnameVerifier;
+    private static volatile HttpRecorder recorder;
+    private static volatile HttpReplayer replayer;
 
     public static final class Argument {
         private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
@@ -74,8 +96,9 @@ public class SimpleHttps {
             return this;
         }
 
-        public void setConnectTimeout(int connectTimeout) {
+        public Argument setConnectTimeout(int connectTimeout) {
             this.connectTimeout = connectTimeout;
+            return this;
         }
 
         public Argument setReadTimeout(int readTimeout) {
@@ -94,6 +117,247 @@ public class SimpleHttps {
         }
     }
 
+    /**
+     * 使用受管理的SSLContext，开启TLS会话缓存<br>
+     * 只作用于SimpleHttps发出的请求，不会修改HttpsURLConnection的全局默认值
+     *
+     * @param trustAllCertificates 是否跳过证书与主机名校验
+     */
+    public static void useManagedSSLContext(boolean trustAllCertificates) throws GeneralSecurityException {
+        TrustManager[] trustManagers = null;
+        if (trustAllCertificates) {
+            trustManagers = new TrustManager[]{new X509TrustManager() {
+                public X509Certificate[] getAcceptedIssuers() {
+                    return new X509Certificate[0];
+                }
+
+                public void checkClientTrusted(X509Certificate[] certs, String authType) {
+                }
+
+                public void checkServerTrusted(X509Certificate[] certs, String authType) {
+                }
+            }};
+        }
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManagers, new SecureRandom());
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+        sessionContext.setSessionTimeout(SESSION_TIMEOUT);
+
+        hostnameVerifier = trustAllCertificates ? (hostname, session) -> true : null;
+        sslSocketFactory = sslContext.getSocketFactory();
+    }
+
+    /**
+     * 让不经过SimpleHttps发出的连接也使用受管理的SSLContext，未调用 {@link #useManagedSSLContext(boolean)} 时不做修改
+     */
+    public static void applySSLContext(HttpsURLConnection httpsURLConnection) {
+        if (sslSocketFactory != null) {
+            httpsURLConnection.setSSLSocketFactory(sslSocketFactory);
+        }
+        if (hostnameVerifier != null) {
+            httpsURLConnection.setHostnameVerifier(hostnameVerifier);
+        }
+    }
+
+    /**
+     * 设置JVM的DNS缓存时间，需要在第一次解析域名之前调用才能生效
+     *
+     * @param seconds 解析成功的结果缓存多少秒，-1表示永久缓存
+     */
+    public static void setDnsCacheTtl(int seconds) {
+        Security.setProperty("networkaddress.cache.ttl", String.valueOf(seconds));
+    }
+
+    /**
+     * 记录之后的所有请求与响应，需要流式读写的请求不会被记录
+     *
+     * @param recorder 记录器，为null时停止记录
+     */
+    public static void setRecorder(HttpRecorder recorder) {
+        SimpleHttps.recorder = recorder;
+    }
+
+    /**
+     * 用记录代替之后的所有网络请求
+     *
+     * @param replayer 回放器，为null时恢复网络请求
+     */
+    public static void setReplayer(HttpReplayer replayer) {
+        SimpleHttps.replayer = replayer;
+    }
+
+    /**
+     * @return 是否正在用记录代替网络请求，不经过SimpleHttps发出请求的调用方据此跳过网络请求
+     */
+    public static boolean isReplaying() {
+        return replayer != null;
+    }
+
+    /**
+     * 设置每个主机最多保留的空闲Keep-Alive连接数（JDK默认为5），需要在发出第一个请求之前调用才能生效
+     *
+     * @param maxConnections 每个主机的空闲连接数上限
+     */
+    public static void setMaxIdleConnectionsPerHost(int maxConnections) {
+        System.setProperty("http.maxConnections", String.valueOf(maxConnections));
+    }
+
+    /**
+     * 预热到目标主机的连接：解析域名并向站点根路径发送HEAD请求<br>
+     * 完成TLS握手的连接会进入Keep-Alive缓存，随后对同一主机的请求可以直接复用，
+     * 即使连接已被服务器关闭，TLS会话缓存也能让下一次握手走会话恢复
+     *
+     * @param url 目标主机上的任意地址
+     */
+    public static RequestResult prewarm(String url) {
+        return prewarm(url, Proxy.NO_PROXY);
+    }
+
+    /**
+     * 经由指定代理预热到目标主机的连接，也可用于检查代理是否可用
+     *
+     * @param url   目标主机上的任意地址
+     * @param proxy 使用的代理
+     */
+    public static RequestResult prewarm(String url, Proxy proxy) {
+        return prewarm(url, proxy, Argument.DEFAULT_CONNECT_TIMEOUT, Argument.DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * 使用指定超时时间预热连接，超时时间应与随后的请求相同
+     */
+    public static RequestResult prewarm(String url, Proxy proxy, int connectTimeout, int readTimeout) {
+        try {
+            URL target = new URL(url);
+            //经由代理时由代理解析域名，本机不查询
+            if (proxy == Proxy.NO_PROXY) InetAddress.getAllByName(target.getHost());
+            String root = target.getProtocol() + "://" + target.getAuthority() + "/";
+            HttpsURLConnection httpsURLConnection = getHttpsURLConnection(HTTP_METHOD.HEAD, root, null, proxy,
+                    connectTimeout, readTimeout);
+            //任何状态码都说明握手已经完成，读完响应后连接才会进入Keep-Alive缓存
+            int code = httpsURLConnection.getResponseCode();
+            try (InputStream inputStream = code < 400 ? httpsURLConnection.getInputStream() : httpsURLConnection.getErrorStream()) {
+                if (inputStream != null) inputStream.readAllBytes();
+            }
+            return new RequestResult("", httpsURLConnection.getHeaderFields());
+        } catch (IOException e) {
+            return new RequestResult(e);
+        }
+    }
+
+    /**
+     * 编译POST请求，得到可以反复发送的 {@link RequestTemplate}，只支持返回响应body的请求
+     *
+     * @param arg 请求参数
+     */
+    public static RequestTemplate compilePOST(Argument arg) {
+        return compile(HTTP_METHOD.POST, arg);
+    }
+
+    /**
+     * 编译GET请求，得到可以反复发送的 {@link RequestTemplate}，只支持返回响应body的请求
+     *
+     * @param arg 请求参数
+     */
+    public static RequestTemplate compileGET(Argument arg) {
+        return compile(HTTP_METHOD.GET, arg);
+    }
+
+    private static RequestTemplate compile(HTTP_METHOD method, Argument arg) {
+        if (arg.needHeaderFields || !arg.needResponse || arg.needInputStream || arg.needOutputStream) {
+            throw new IllegalArgumentException("only requests returning the response body can be compiled");
+        }
+        URL url;
+        try {
+            url = new URL(arg.url);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        //与 getHttpsURLConnection 相同的默认请求头，请求头名称不区分大小写，自定义值覆盖默认值
+        Map<String, String[]> merged = new LinkedHashMap<>();
+        merged.put("connection", new String[]{"Connection", "Keep-Alive"});
+        merged.put("user-agent", new String[]{"User-Agent", USER_AGENT});
+        if (arg.requestProperty != null) {
+            for (Map.Entry<String, String> entry : arg.requestProperty.entrySet()) {
+                merged.put(entry.getKey().toLowerCase(Locale.ROOT), new String[]{entry.getKey(), entry.getValue()});
+            }
+        }
+        String[] headers = new String[merged.size() * 2];
+        int i = 0;
+        for (String[] header : merged.values()) {
+            headers[i++] = header[0];
+            headers[i++] = header[1];
+        }
+        byte[] postData = arg.postData == null ? null : arg.postData.clone();
+        return new RequestTemplate(method, arg.url, url, headers, postData, arg.proxy, arg.connectTimeout, arg.readTimeout);
+    }
+
+    /**
+     * 发送预编译的请求<br>
+     * 不再重新解析地址与合并请求头，响应读入线程复用的缓冲区后一次解码，不逐行复制
+     */
+    public static RequestResult send(RequestTemplate template) {
+        return send(template, template.proxy);
+    }
+
+    /**
+     * 经由指定代理发送预编译的请求，代替编译时设置的代理
+     */
+    public static RequestResult send(RequestTemplate template, Proxy proxy) {
+        HttpRequestEvent event = new HttpRequestEvent();
+        event.begin();
+        HttpReplayer replayer = SimpleHttps.replayer;
+        if (replayer != null) {
+            RequestResult result = replayer.replay(template.method, template.urlString);
+            event.commit(template.method, template.urlString, template.postData, result, true);
+            return result;
+        }
+        long start = System.nanoTime();
+        RequestResult result;
+        try {
+            HttpsURLConnection httpsURLConnection = openConnection(template.method, template.url, proxy,
+                    template.connectTimeout, template.readTimeout);
+            String[] headers = template.headers;
+            for (int i = 0; i < headers.length; i += 2) {
+                httpsURLConnection.setRequestProperty(headers[i], headers[i + 1]);
+            }
+            if (template.method == HTTP_METHOD.POST && template.postData != null) {
+                try (OutputStream outputStream = httpsURLConnection.getOutputStream()) {
+                    outputStream.write(template.postData);
+                }
+            }
+            String response;
+            try (InputStream inputStream = httpsURLConnection.getInputStream()) {
+                response = readResponse(inputStream);
+            }
+            result = new RequestResult(response, null);
+        } catch (IOException e) {
+            result = new RequestResult(e);
+        }
+        event.commit(template.method, template.urlString, template.postData, result, false);
+        HttpRecorder recorder = SimpleHttps.recorder;
+        if (recorder != null) {
+            recorder.record(new HttpRecorder.Exchange(template.method.name(), template.urlString, template.postData,
+                    result.getResponse(), result.getErrorMsg(), System.nanoTime() - start));
+        }
+        return result;
+    }
+
+    private static String readResponse(InputStream inputStream) throws IOException {
+        byte[] buffer = RESPONSE_BUFFER.get();
+        int length = 0;
+        int n;
+        while ((n = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+            length += n;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                if (buffer.length <= MAX_RETAINED_RESPONSE_BUFFER) RESPONSE_BUFFER.set(buffer);
+            }
+        }
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
     /**
      * 发送GET请求，仅返回响应body
      *
@@ -145,6 +409,31 @@ public class SimpleHttps {
     private static RequestResult send(HTTP_METHOD method, String url, Map<String, String> requestProperty,
                                       byte[] postData, boolean needHeaderFields, boolean needResponse, Proxy proxy,
                                       int connectTimeout, int readTimeout, boolean needInputStream, boolean needOutputStream) {
+        boolean recordable = !needInputStream && !needOutputStream;
+        HttpRequestEvent event = new HttpRequestEvent();
+        event.begin();
+        HttpReplayer replayer = SimpleHttps.replayer;
+        if (replayer != null && recordable) {
+            RequestResult result = replayer.replay(method, url);
+            event.commit(method, url, postData, result, true);
+            return result;
+        }
+        long start = System.nanoTime();
+        RequestResult result = execute(method, url, requestProperty, postData, needHeaderFields, needResponse, proxy,
+                connectTimeout, readTimeout, needInputStream, needOutputStream);
+        //流式读写的请求在返回时还没有完成，不记录事件
+        if (recordable) event.commit(method, url, postData, result, false);
+        HttpRecorder recorder = SimpleHttps.recorder;
+        if (recorder != null && recordable) {
+            recorder.record(new HttpRecorder.Exchange(method.name(), url, postData, result.getResponse(),
+                    result.getErrorMsg(), System.nanoTime() - start));
+        }
+        return result;
+    }
+
+    private static RequestResult execute(HTTP_METHOD method, String url, Map<String, String> requestProperty,
+                                         byte[] postData, boolean needHeaderFields, boolean needResponse, Proxy proxy,
+                                         int connectTimeout, int readTimeout, boolean needInputStream, boolean needOutputStream) {
         try {
             HttpsURLConnection httpsURLConnection = getHttpsURLConnection(method, url, requestProperty, proxy, connectTimeout, readTimeout);
 
@@ -195,14 +484,7 @@ public class SimpleHttps {
     private static HttpsURLConnection getHttpsURLConnection(HTTP_METHOD method, String urlString,
                                                             Map<String, String> requestProperty, Proxy proxy,
                                                             int connectTimeout, int readTimeout) throws IOException {
-        URL url = new URL(urlString);
-        HttpsURLConnection httpsURLConnection = (HttpsURLConnection) url.openConnection(proxy);
-        httpsURLConnection.setConnectTimeout(connectTimeout);
-        httpsURLConnection.setReadTimeout(readTimeout);
-        if (method == HTTP_METHOD.POST) {
-            httpsURLConnection.setRequestMethod("POST");
-            httpsURLConnection.setDoOutput(true);
-        }
+        HttpsURLConnection httpsURLConnection = openConnection(method, new URL(urlString), proxy, connectTimeout, readTimeout);
         //默认请求属性，如传入新值会覆盖
         httpsURLConnection.setRequestProperty("Connection", "Keep-Alive");
         //Keep-Alive时关闭输入流不会disconnect()连接
@@ -219,4 +501,22 @@ public class SimpleHttps {
         }
         return httpsURLConnection;
     }
+
+    /**
+     * 创建连接并设置超时、TLS与请求方法，不设置请求头
+     */
+    private static HttpsURLConnection openConnection(HTTP_METHOD method, URL url, Proxy proxy,
+                                                     int connectTimeout, int readTimeout) throws IOException {
+        HttpsURLConnection httpsURLConnection = (HttpsURLConnection) url.openConnection(proxy);
+        httpsURLConnection.setConnectTimeout(connectTimeout);
+        httpsURLConnection.setReadTimeout(readTimeout);
+        applySSLContext(httpsURLConnection);
+        if (method == HTTP_METHOD.POST) {
+            httpsURLConnection.setRequestMethod("POST");
+            httpsURLConnection.setDoOutput(true);
+        } else if (method == HTTP_METHOD.HEAD) {
+            httpsURLConnection.setRequestMethod("HEAD");
+        }
+        return httpsURLConnection;
+    }
 }
@@ -0,0 +1,140 @@
+package com.devccv.util.push;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 临时素材media_id缓存<br>
+ * 以文件内容的SHA-256、素材类型和企业ID为键，相同内容的文件在media_id有效期内只上传一次<br>
+ * media_id三天内有效，且在同一企业内应用之间可以共享；距离过期不足 {@link #EXPIRY_MARGIN} 的条目视为失效并被清除<br>
+ * <br>
+ * 指定缓存文件时，每次更新后写入磁盘，重启后继续使用
+ */
+public class MediaCache {
+    /**
+     * media_id有效期
+     */
+    private static final long MEDIA_LIFETIME = 3 * 24 * 60 * 60 * 1000L;
+    /**
+     * 提前失效的时间，避免推送时media_id恰好过期
+     */
+    private static final long EXPIRY_MARGIN = 60 * 60 * 1000L;
+    private final Path file;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private record Entry(String mediaId, long createdAt) {
+        boolean isValid(long now) {
+            return now < createdAt + MEDIA_LIFETIME - EXPIRY_MARGIN;
+        }
+    }
+
+    /**
+     * 仅在内存中缓存
+     */
+    public MediaCache() {
+        this.file = null;
+    }
+
+    /**
+     * @param file 缓存文件，不存在时自动创建
+     */
+    public MediaCache(Path file) {
+        this.file = file;
+        if (!Files.exists(file)) return;
+        try {
+            JSONObject json = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+            for (String key : json.keySet()) {
+                JSONObject entry = json.getJSONObject(key);
+                entries.put(key, new Entry(entry.getString("media_id"), entry.getLong("created_at")));
+            }
+            evictExpired(System.currentTimeMillis());
+        } catch (Exception e) {
+            //缓存文件损坏时从空缓存开始
+            entries.clear();
+        }
+    }
+
+    /**
+     * 计算缓存键
+     *
+     * @param corpId  企业ID
+     * @param type    素材类型，image/voice/video/file
+     * @param content 文件内容
+     */
+    public static String key(String corpId, String type, byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            return corpId + ":" + type + ":" + HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return 仍然有效的media_id，没有时返回null
+     */
+    public synchronized String get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+        if (!entry.isValid(System.currentTimeMillis())) {
+            entries.remove(key);
+            save();
+            return null;
+        }
+        return entry.mediaId;
+    }
+
+    /**
+     * @param mediaId   上传得到的media_id
+     * @param createdAt 上传时间戳（毫秒）
+     */
+    public synchronized void put(String key, String mediaId, long createdAt) {
+        entries.put(key, new Entry(mediaId, createdAt));
+        evictExpired(System.currentTimeMillis());
+        save();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (!iterator.next().isValid(now)) iterator.remove();
+        }
+    }
+
+    /**
+     * 先写临时文件再替换，避免写入中途退出损坏缓存文件
+     */
+    private void save() {
+        if (file == null) return;
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            json.put(entry.getKey(), new JSONObject()
+                    .put("media_id", entry.getValue().mediaId)
+                    .put("created_at", entry.getValue().createdAt));
+        }
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temp, json.toString(), StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            //写出缓存失败不影响推送
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.devccv.util.push;
+
+import org.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * 企业微信批量推送，由 {@link WeChatPush#newBroadcast()} 创建<br>
+ * 内容相同的消息合并发送：同一条消息的成员、部门、标签放进同一个请求，
+ * 每个请求最多1000个成员、100个部门、100个标签，超出时拆分为多个请求<br>
+ * 接口返回的 invaliduser / invalidparty / invalidtag 映射回对应的接收者，整个请求失败时其中所有接收者都算失败<br>
+ * <br>
+ * 不是线程安全的，每批消息创建一个新的实例
+ */
+public class WeChatBroadcast {
+    private final WeChatPush weChatPush;
+    /**
+     * 消息内容到接收者的映射，保持加入顺序
+     */
+    private final Map<String, Message> messages = new LinkedHashMap<>();
+
+    public enum TargetType {
+        USER("touser", "invaliduser", 1000),
+        PARTY("toparty", "invalidparty", 100),
+        TAG("totag", "invalidtag", 100);
+
+        private final String field;
+        private final String invalidField;
+        private final int maxPerRequest;
+
+        TargetType(String field, String invalidField, int maxPerRequest) {
+            this.field = field;
+            this.invalidField = invalidField;
+            this.maxPerRequest = maxPerRequest;
+        }
+    }
+
+    /**
+     * 一个接收者：成员ID、部门ID或标签ID
+     */
+    public record Recipient(TargetType type, String id) {
+        public static Recipient user(String userID) {
+            return new Recipient(TargetType.USER, userID);
+        }
+
+        public static Recipient party(String partyID) {
+            return new Recipient(TargetType.PARTY, partyID);
+        }
+
+        public static Recipient tag(String tagID) {
+            return new Recipient(TargetType.TAG, tagID);
+        }
+    }
+
+    /**
+     * 一条消息没能送达某个接收者
+     *
+     * @param reason 接口返回的错误信息，或 invaliduser 等无效接收者字段名
+     */
+    public record Failure(Recipient recipient, String msgtype, JSONObject payload, String reason) {
+    }
+
+    private record Message(String msgtype, JSONObject payload, Map<TargetType, Set<String>> targets) {
+    }
+
+    WeChatBroadcast(WeChatPush weChatPush) {
+        this.weChatPush = weChatPush;
+    }
+
+    /**
+     * 加入一条文本消息
+     *
+     * @param content 消息内容，内容相同的消息会合并发送
+     */
+    public WeChatBroadcast addTextMessage(Recipient recipient, String content) {
+        return addMessage(recipient, "text", new JSONObject().put("content", content));
+    }
+
+    /**
+     * 加入一条任意类型的消息
+     *
+     * @param msgtype 消息类型，如 text、textcard
+     * @param payload 消息类型对应字段的内容，如文本卡片的 {"title": ..., "description": ..., "url": ...}
+     */
+    public WeChatBroadcast addMessage(Recipient recipient, String msgtype, JSONObject payload) {
+        //按字段名排序后比较内容，字段顺序不同的相同消息也能合并
+        String key = msgtype + "\n" + new TreeMap<>(payload.toMap());
+        messages.computeIfAbsent(key, k -> new Message(msgtype, payload, new EnumMap<>(TargetType.class)))
+                .targets.computeIfAbsent(recipient.type, t -> new LinkedHashSet<>()).add(recipient.id);
+        return this;
+    }
+
+    /**
+     * 合并发送所有消息
+     *
+     * @return 没能送达的消息与接收者，全部成功时为空
+     */
+    public List<Failure> send() {
+        List<Failure> failures = new ArrayList<>();
+        for (Message message : messages.values()) {
+            Map<TargetType, List<String>> remaining = new EnumMap<>(TargetType.class);
+            message.targets.forEach((type, ids) -> remaining.put(type, new ArrayList<>(ids)));
+            while (remaining.values().stream().anyMatch(ids -> !ids.isEmpty())) {
+                //每个请求从每种接收者中各取不超过上限的一批
+                Map<TargetType, List<String>> batch = new EnumMap<>(TargetType.class);
+                for (Map.Entry<TargetType, List<String>> entry : remaining.entrySet()) {
+                    List<String> ids = entry.getValue();
+                    if (ids.isEmpty()) continue;
+                    List<String> taken = ids.subList(0, Math.min(ids.size(), entry.getKey().maxPerRequest));
+                    batch.put(entry.getKey(), new ArrayList<>(taken));
+                    taken.clear();
+                }
+                sendBatch(message, batch, failures);
+            }
+        }
+        return failures;
+    }
+
+    private void sendBatch(Message message, Map<TargetType, List<String>> batch, List<Failure> failures) {
+        Map<String, String> targets = new LinkedHashMap<>();
+        batch.forEach((type, ids) -> targets.put(type.field, String.join("|", ids)));
+        JSONObject result = weChatPush.pushRaw(message.msgtype, message.payload, targets);
+        int errCode = result.optInt("errcode", -1);
+        if (errCode != 0) {
+            //整个请求失败，包括 81013 所有接收者都无效
+            String reason = result.optString("errmsg", "errcode " + errCode);
+            batch.forEach((type, ids) -> ids.forEach(id -> failures.add(new Failure(new Recipient(type, id), message.msgtype, message.payload, reason))));
+            return;
+        }
+        for (TargetType type : batch.keySet()) {
+            String invalid = result.optString(type.invalidField, "");
+            if (invalid.isBlank()) continue;
+            for (String id : invalid.split("\\|")) {
+                failures.add(new Failure(new Recipient(type, id), message.msgtype, message.payload, type.invalidField));
+            }
+        }
+        //未获得许可的成员同样收不到消息
+        String unlicensed = result.optString("unlicenseduser", "");
+        if (!unlicensed.isBlank()) {
+            for (String id : unlicensed.split("\\|")) {
+                failures.add(new Failure(Recipient.user(id), message.msgtype, message.payload, "unlicenseduser"));
+            }
+        }
+    }
+}
@@ -46,7 +46,9 @@ public class WeChatPush {
      */
     private static final String TEMPORARY_MEDIA_UPLOAD_URL = "https://qyapi.weixin.qq.com/cgi-bin/media/upload?access_token=%s&type=%s";
     private final String specificGetTokenURL;
+    private final String corpId;
     private final int agentID;
+    private MediaCache mediaCache;
     private String access_token;
     private long expiresTime;
     private String pushTarget;
@@ -64,6 +66,7 @@ public class WeChatPush {
      */
     public WeChatPush(String corpId, int agentID, String corpSecret) {
         this.agentID = agentID;
+        this.corpId = corpId;
         specificGetTokenURL = String.format(GET_TOKEN_URL, corpId, corpSecret);
     }
 
@@ -124,6 +127,16 @@ public class WeChatPush {
     public void setSafeCode(int safeCode) {
         this.safe = safeCode;
     }
+
+    /**
+     * 设置临时素材缓存，相同内容的文件在media_id有效期内只上传一次
+     * 同一企业的多个应用可以共用一个缓存
+     *
+     * @param mediaCache 素材缓存，为null时每次都上传
+     */
+    public void setMediaCache(MediaCache mediaCache) {
+        this.mediaCache = mediaCache;
+    }
     //endregion
 
     public enum MediaFileType {
@@ -139,15 +152,11 @@ public class WeChatPush {
      * @return 临时media_id，三天有效，出错返回null
      */
     public String uploadTemporaryMedia(File file, String fileName, MediaFileType fileType) {
-        if (!checkTokenUpdate()) return null;
-
-        //构造上传链接
-        String uploadURL = String.format(TEMPORARY_MEDIA_UPLOAD_URL, access_token, "%s");
-        uploadURL = switch (fileType) {
-            case NORMAL_FILE -> String.format(uploadURL, "file");
-            case JPG_FILE, PNG_FILE, BMP_FILE -> String.format(uploadURL, "image");
-            case AMR_FILE -> String.format(uploadURL, "voice");
-            case MP4_FILE -> String.format(uploadURL, "video");
+        String type = switch (fileType) {
+            case NORMAL_FILE -> "file";
+            case JPG_FILE, PNG_FILE, BMP_FILE -> "image";
+            case AMR_FILE -> "voice";
+            case MP4_FILE -> "video";
         };
 
         String contentType = switch (fileType) {
@@ -160,7 +169,24 @@ public class WeChatPush {
         };
 
         try {
-            lastReturn = WeChatPush.postUploadMedia(uploadURL, file, fileName, contentType);
+            //文件的二进制内容
+            byte[] fileAllBytes;
+            try (FileInputStream fileInputStream = new FileInputStream(file)) {
+                fileAllBytes = fileInputStream.readAllBytes();
+            }
+
+            //相同内容的素材仍在有效期内时直接复用
+            String cacheKey = null;
+            if (mediaCache != null) {
+                cacheKey = MediaCache.key(corpId, type, fileAllBytes);
+                String cached = mediaCache.get(cacheKey);
+                if (cached != null) return cached;
+            }
+
+            if (!checkTokenUpdate()) return null;
+            //构造上传链接
+            String uploadURL = String.format(TEMPORARY_MEDIA_UPLOAD_URL, access_token, type);
+            lastReturn = WeChatPush.postUploadMedia(uploadURL, file, fileAllBytes, fileName, contentType);
             lastReturnJson = new JSONObject(lastReturn);
 
             //TODO:debug
@@ -169,14 +195,20 @@ public class WeChatPush {
                 return null;
             }
 
-            return lastReturnJson.getString("media_id");
+            String mediaId = lastReturnJson.getString("media_id");
+            if (mediaCache != null) {
+                //created_at为上传时间戳（秒）
+                long createdAt = lastReturnJson.optLong("created_at", System.currentTimeMillis() / 1000) * 1000L;
+                mediaCache.put(cacheKey, mediaId, createdAt);
+            }
+            return mediaId;
         } catch (Exception e) {
             e.printStackTrace();
             return null;
         }
     }
 
-    private static String postUploadMedia(String url, File file, String fileName, String contentType) throws IOException {
+    private static String postUploadMedia(String url, File file, byte[] fileAllBytes, String fileName, String contentType) throws IOException {
         String newLine = "\r\n";
         String boundaryPrefix = "--";
         String boundary = "boundary";
@@ -189,17 +221,11 @@ public class WeChatPush {
         String post = newLine + boundaryPrefix + boundary + newLine +
                       "Content-Disposition: form-data; name=\"media\";filename=\"" +
                       fileName + file.getName().substring(file.getName().lastIndexOf(".")) +
-                      "\"; filelength=" + file.length() + newLine +
+                      "\"; filelength=" + fileAllBytes.length + newLine +
                       "Content-Type: " + contentType + newLine +
                       newLine;
         byte[] startOfPost = post.getBytes(StandardCharsets.UTF_8);
 
-        //文件的二进制内容
-        byte[] fileAllBytes;
-        try (FileInputStream fileInputStream = new FileInputStream(file)) {
-            fileAllBytes = fileInputStream.readAllBytes();
-        }
-
         //POST主体结尾
         byte[] endOfPost = (newLine + boundaryPrefix + boundary + boundaryPrefix + newLine).getBytes(StandardCharsets.UTF_8);
 
@@ -346,21 +372,69 @@ public class WeChatPush {
         return json;
     }
 
+    /**
+     * 创建批量推送，内容相同的消息合并为尽量少的请求
+     */
+    public WeChatBroadcast newBroadcast() {
+        return new WeChatBroadcast(this);
+    }
+
+    /**
+     * 向指定目标推送一条消息，供 {@link WeChatBroadcast} 使用
+     *
+     * @param targets touser / toparty / totag 到以|分隔的ID列表
+     * @return 接口的返回信息，获取access_token失败时为包含errmsg的对象
+     */
+    JSONObject pushRaw(String msgtype, JSONObject payload, Map<String, String> targets) {
+        if (!checkTokenUpdate()) {
+            return new JSONObject().put("errcode", getErrCode() == 0 ? -1 : getErrCode()).put("errmsg", getErrMsg());
+        }
+        JSONObject postBody = new JSONObject();
+        targets.forEach(postBody::put);
+        postBody.put("msgtype", msgtype);
+        postBody.put("agentid", agentID);
+        if (safe != 0) {
+            postBody.put("safe", safe);
+        }
+        postBody.put(msgtype, payload);
+        postMessage(postBody, String.join(",", targets.keySet()));
+        return lastReturnJson;
+    }
+
     private boolean appPush(JSONObject postBody) {
         if (!prepareToPush()) return false;
+        postMessage(postBody, pushTargetType);
+        return getErrCode() == 0;
+    }
 
+    /**
+     * 发送已组装好的消息，返回信息保存在 lastReturnJson 中
+     */
+    private void postMessage(JSONObject postBody, String targetType) {
+        WeChatPushEvent event = new WeChatPushEvent();
+        event.begin();
+        byte[] postData = postBody.toString().getBytes(StandardCharsets.UTF_8);
         try {
-            lastReturn = SimpleHttps.POST(new SimpleHttps.Argument(PUSH_MESSAGE_URL + access_token).setPostData(postBody.toString().getBytes(StandardCharsets.UTF_8))).getResponseOrException();
+            lastReturn = SimpleHttps.POST(new SimpleHttps.Argument(PUSH_MESSAGE_URL + access_token).setPostData(postData)).getResponseOrException();
             lastReturnJson = new JSONObject(lastReturn);
         } catch (IOException e) {
-            lastReturnJson = new JSONObject("{\"errmsg\": \"" + e.getMessage() + "\"}");
+            lastReturnJson = new JSONObject().put("errmsg", e.getMessage()).put("exception", e.getClass().getName());
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "appPush";
+            event.msgType = postBody.optString("msgtype");
+            event.targetType = targetType;
+            event.requestBytes = postData.length;
+            event.errCode = getErrCode();
+            event.errMsg = eventErrMsg();
+            event.success = event.errCode == 0;
+            event.commit();
         }
 
         //TODO:debug
         //System.out.println(lastReturn);
         //if (!getErrMsg().equals("ok")) System.out.println(getErrMsg());
-
-        return getErrCode() == 0;
     }
 
     //region GetResult
@@ -421,6 +495,28 @@ public class WeChatPush {
      * @return 是否更新成功
      */
     private boolean updateAccessToken() {
+        WeChatPushEvent event = new WeChatPushEvent();
+        event.begin();
+        boolean success = fetchAccessToken();
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "updateAccessToken";
+            event.errCode = success ? 0 : getErrCode();
+            event.errMsg = success ? "ok" : eventErrMsg();
+            event.success = success;
+            event.commit();
+        }
+        return success;
+    }
+
+    /**
+     * 记录到JFR事件中的错误信息：网络异常的信息中带有含access_token或corpsecret的完整地址，只记录异常类型
+     */
+    private String eventErrMsg() {
+        return lastReturnJson.has("exception") ? lastReturnJson.getString("exception") : getErrMsg();
+    }
+
+    private boolean fetchAccessToken() {
         try {
             String rawData = SimpleHttps.GET(new SimpleHttps.Argument(specificGetTokenURL)).getResponseOrException();
             JSONObject json = new JSONObject(rawData);
@@ -434,7 +530,7 @@ public class WeChatPush {
             this.expiresTime = System.currentTimeMillis() + (json.getLong("expires_in") * 1000L) - (1000L);
             return true;
         } catch (Exception e) {
-            lastReturnJson = new JSONObject("{\"errmsg\": \"" + e.getMessage() + "\"}");
+            lastReturnJson = new JSONObject().put("errmsg", e.getMessage()).put("exception", e.getClass().getName());
             this.expiresTime = 0;
             return false;
         }
@@ -0,0 +1,30 @@
+package com.devccv.util.push;
+
+import jdk.jfr.*;
+
+/**
+ * 企业微信接口调用的JFR事件：推送消息与更新access_token
+ */
+@Name("com.devccv.WeChatPush")
+@Label("WeChat Push")
+@Category({"GradeReminder", "Push"})
+@Description("A WeChat Work message push or access token update")
+@StackTrace(false)
+final class WeChatPushEvent extends Event {
+    @Label("Operation")
+    @Description("appPush or updateAccessToken")
+    String operation;
+    @Label("Message Type")
+    String msgType;
+    @Label("Target Type")
+    String targetType;
+    @Label("Request Bytes")
+    @DataAmount
+    long requestBytes;
+    @Label("Error Code")
+    int errCode;
+    @Label("Error Message")
+    String errMsg;
+    @Label("Success")
+    boolean success;
+}
@@ -0,0 +1,121 @@
+package grade;
+
+import grade.notify.Outbox;
+import grade.pipeline.PollPipeline;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 单次运行模式（--once），用于 Kubernetes CronJob、systemd timer 等定时任务，不需要常驻JVM<br>
+ * 恢复上次保存的状态，把所有学号同时提交给查询流水线，等待全部查询结束、新通知至少投递一次后保存状态并退出；
+ * 各接口同时进行的请求数仍受 maxConcurrency 限制；没有配置 maxConcurrency 的接口在单次运行中
+ * 默认使用该接口的学号数（不超过 {@value #DEFAULT_MAX_CONCURRENCY}），一次运行的耗时接近最慢的那个学号<br>
+ * <br>
+ * 退出码按位组合：0 全部成功；1 运行出错；2 有学号查询失败（网络错误或登录失效）；
+ * 4 有通知尚未送达：配置了发件箱时已留在发件箱中，下次运行时继续投递；没有发件箱时不会重试
+ */
+public final class BatchRun {
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_ERROR = 1;
+    public static final int EXIT_FETCH_FAILED = 2;
+    public static final int EXIT_UNDELIVERED = 4;
+    /**
+     * 单次运行时未配置 maxConcurrency 的接口的并发上限
+     */
+    static final int DEFAULT_MAX_CONCURRENCY = 4;
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private BatchRun() {
+    }
+
+    /**
+     * 在创建接口前调用：为没有配置 maxConcurrency 的接口按学号数设置单次运行的并发，已配置的值保持不变
+     *
+     * @param config 完整的配置文件，会被修改
+     */
+    public static void applyDefaults(JSONObject config) {
+        JSONArray studentIDs = config.getJSONArray("studentID");
+        JSONArray endpointNames = config.optJSONArray("endpoint");
+        Map<String, Set<String>> studentsByEndpoint = new HashMap<>();
+        for (int i = 0; i < studentIDs.length(); i++) {
+            String name = endpointNames == null ? Endpoint.DEFAULT_NAME : endpointNames.optString(i, Endpoint.DEFAULT_NAME);
+            studentsByEndpoint.computeIfAbsent(name, k -> new HashSet<>()).add(studentIDs.getString(i).trim());
+        }
+        //未在 endpoints 中配置 default 时，默认接口的配置就是顶层配置
+        Map<String, JSONObject> endpointConfigs = new HashMap<>();
+        JSONObject endpointsJson = config.optJSONObject("endpoints");
+        if (endpointsJson != null) {
+            for (String name : endpointsJson.keySet()) endpointConfigs.put(name, endpointsJson.getJSONObject(name));
+        }
+        endpointConfigs.putIfAbsent(Endpoint.DEFAULT_NAME, config);
+        studentsByEndpoint.forEach((name, ids) -> {
+            JSONObject endpointConfig = endpointConfigs.get(name);
+            if (endpointConfig != null && !endpointConfig.has("maxConcurrency")) {
+                endpointConfig.put("maxConcurrency", Math.min(ids.size(), DEFAULT_MAX_CONCURRENCY));
+            }
+        });
+    }
+
+    /**
+     * @param deliveryTimeout 等待新通知首次投递的最长时间（毫秒）
+     * @return 进程退出码
+     */
+    public static int run(List<Student> students, Poller poller, PollPipeline pipeline, StateStore state, long deliveryTimeout)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            int restored = state.load(students);
+            System.out.println("State: " + restored + "/" + students.size() + " students restored from " + state.getFile());
+        } catch (Exception e) {
+            //状态文件损坏时不能判断成绩是否变化，宁可退出也不重新建立基准而漏掉通知
+            System.out.println("Read state file " + state.getFile() + " failed: " + e.getMessage());
+            return EXIT_ERROR;
+        }
+
+        //所有学号同时提交，由流水线按接口限制并发
+        String time = "[" + DATE_TIME_FORMATTER.format(LocalDateTime.now()) + "]";
+        Map<Student, Long> fetchedBefore = new HashMap<>();
+        CountDownLatch done = new CountDownLatch(students.size());
+        for (Student student : students) {
+            fetchedBefore.put(student, student.getFetchedAt());
+            if (!pipeline.submit(student, time, done::countDown)) done.countDown();
+        }
+        done.await();
+
+        int exitCode = EXIT_OK;
+        //成功收到成绩单（包括没有变化、还没有成绩）时才会更新查询时间
+        int failed = 0;
+        for (Student student : students) {
+            if (student.getFetchedAt() == fetchedBefore.get(student)) failed++;
+        }
+        if (failed > 0) exitCode |= EXIT_FETCH_FAILED;
+
+        Outbox outbox = poller.getOutbox();
+        long undelivered;
+        if (outbox != null) {
+            outbox.awaitAttempted(deliveryTimeout);
+            undelivered = outbox.pendingCount();
+        } else {
+            //没有发件箱时推送在查询中同步完成
+            undelivered = poller.getNotifyFailures();
+        }
+        if (undelivered > 0) exitCode |= EXIT_UNDELIVERED;
+
+        try {
+            state.save(students);
+        } catch (IOException e) {
+            System.out.println("Write state file " + state.getFile() + " failed: " + e.getMessage());
+            exitCode |= EXIT_ERROR;
+        }
+        System.out.println("Batch: " + students.size() + " students in " + (System.nanoTime() - start) / 1_000_000 + "ms, " +
+                           failed + " failed, Notifications: " + poller.getNotifyCount() + ", Undelivered: " + undelivered +
+                           ", exit code " + exitCode);
+        return exitCode;
+    }
+}
@@ -0,0 +1,173 @@
+package grade;
+
+import com.devccv.util.network.ConcurrencyLimiter;
+import org.json.JSONObject;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个教务系统成绩查询接口<br>
+ * 每个接口有独立的查询线程池，线程数即对该主机的最大并发请求数，
+ * 一个接口响应缓慢只会占满它自己的线程，不影响其他学校的查询<br>
+ * <br>
+ * 配置项 endpoints 为接口名到接口配置的映射，未配置时使用顶层的 requestURL 作为名为 default 的接口：
+ * <pre>
+ * "endpoints": {
+ *   "schoolA": {"requestURL": "https://...&su=", "maxConcurrency": 2, "connectTimeout": 5000, "readTimeout": 10000, "requestGap": 1000}
+ * }
+ * </pre>
+ * deltaPageSize 大于0时开启增量查询：先按 deltaSortName 倒序只取第一页，与已有成绩单比较，有变化时才查询完整成绩单<br>
+ * 配置 adaptiveConcurrency 时，同时进行的请求数在 min 与 maxConcurrency 之间按延迟与错误自动调整，
+ * 此时 maxConcurrency 默认为 {@value #DEFAULT_ADAPTIVE_MAX_CONCURRENCY}，否则上限为1时无法调整：
+ * <pre>"adaptiveConcurrency": {"initial": 1, "min": 1, "tolerance": 2.0, "backoffRatio": 0.9}</pre>
+ */
+public class Endpoint {
+    public static final String DEFAULT_NAME = "default";
+    private static final int DEFAULT_MAX_CONCURRENCY = 1;
+    private static final int DEFAULT_ADAPTIVE_MAX_CONCURRENCY = 8;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    private static final int DEFAULT_READ_TIMEOUT = 5000;
+    /**
+     * 每个查询线程两次请求之间的间隔，避免对教务系统造成压力
+     */
+    private static final long DEFAULT_REQUEST_GAP = 1000;
+    /**
+     * 增量查询时的排序字段，默认按学年倒序，新学期的成绩排在最前
+     */
+    private static final String DEFAULT_DELTA_SORT_NAME = "xnm";
+    private final String name;
+    private final String requestURL;
+    private final String host;
+    private final int maxConcurrency;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private volatile long requestGap;
+    private final int deltaPageSize;
+    private final String deltaSortName;
+    /**
+     * 未配置 adaptiveConcurrency 时为null，并发数固定为 maxConcurrency
+     */
+    private final ConcurrencyLimiter limiter;
+    private final ExecutorService executor;
+
+    private Endpoint(String name, JSONObject config) {
+        this.name = name;
+        this.requestURL = config.getString("requestURL");
+        try {
+            this.host = new URL(requestURL).getHost();
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid requestURL of endpoint " + name, e);
+        }
+        JSONObject adaptive = config.optJSONObject("adaptiveConcurrency");
+        if (adaptive == null && config.optBoolean("adaptiveConcurrency", false)) adaptive = new JSONObject();
+        this.maxConcurrency = Math.max(1, config.optInt("maxConcurrency",
+                adaptive == null ? DEFAULT_MAX_CONCURRENCY : DEFAULT_ADAPTIVE_MAX_CONCURRENCY));
+        this.connectTimeout = config.optInt("connectTimeout", DEFAULT_CONNECT_TIMEOUT);
+        this.readTimeout = config.optInt("readTimeout", DEFAULT_READ_TIMEOUT);
+        this.requestGap = config.optLong("requestGap", DEFAULT_REQUEST_GAP);
+        this.deltaPageSize = config.optInt("deltaPageSize", 0);
+        this.deltaSortName = config.optString("deltaSortName", DEFAULT_DELTA_SORT_NAME);
+        this.limiter = adaptive == null ? null : new ConcurrencyLimiter(adaptive.optInt("initial", 1), adaptive.optInt("min", 1),
+                maxConcurrency, adaptive.optDouble("tolerance", 2.0), adaptive.optDouble("backoffRatio", 0.9));
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxConcurrency, r -> {
+            Thread thread = new Thread(r, "poll-" + name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return 接口名到接口的映射，保持配置顺序
+     */
+    public static Map<String, Endpoint> fromConfig(JSONObject config) {
+        Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+        JSONObject endpointsJson = config.optJSONObject("endpoints");
+        if (endpointsJson != null) {
+            for (String name : endpointsJson.keySet()) {
+                endpoints.put(name, new Endpoint(name, endpointsJson.getJSONObject(name)));
+            }
+        }
+        if (!endpoints.containsKey(DEFAULT_NAME) && config.has("requestURL")) {
+            endpoints.put(DEFAULT_NAME, new Endpoint(DEFAULT_NAME, config));
+        }
+        return endpoints;
+    }
+
+    /**
+     * 在本接口的查询线程中执行任务，任务结束后线程等待 requestGap 毫秒再执行下一个任务
+     */
+    public void submit(Runnable task) {
+        executor.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                try {
+                    Thread.sleep(requestGap);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return 自适应并发限制，未配置时为null
+     */
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * @return 当前允许同时进行的请求数
+     */
+    public int getConcurrencyLimit() {
+        return limiter == null ? maxConcurrency : limiter.getLimit();
+    }
+
+    public void setRequestGap(long requestGap) {
+        this.requestGap = requestGap;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getRequestURL() {
+        return requestURL;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public int getDeltaPageSize() {
+        return deltaPageSize;
+    }
+
+    public String getDeltaSortName() {
+        return deltaSortName;
+    }
+}
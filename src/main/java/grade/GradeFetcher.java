@@ -0,0 +1,217 @@
+package grade;
+
+import com.devccv.util.network.ConcurrencyLimiter;
+import com.devccv.util.network.ProxyPool;
+import com.devccv.util.network.RequestResult;
+import com.devccv.util.network.RequestTemplate;
+import com.devccv.util.network.SimpleHttps;
+import org.json.JSONObject;
+
+import java.net.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 从教务系统成绩查询接口获取原始数据<br>
+ * 每个学号的每个cookie第一次查询时编译为 {@link RequestTemplate}，之后的查询直接发送，不再拼接地址与请求头；
+ * 配置了代理池时，每个学号的请求经由池中分配给它的代理发送
+ */
+public class GradeFetcher {
+    /**
+     * 默认只返回10个科目的成绩，添加这个参数获取所有科目成绩
+     */
+    private static final String POST_DATA = "&queryModel.showCount=5000&queryModel.currentPage=1";
+    /**
+     * 增量查询只取倒序排列后的第一页
+     */
+    private static final String VALIDATE_DATA = "&queryModel.showCount=1&queryModel.currentPage=1";
+    private static final String PROBE_DATA = "&queryModel.showCount=%d&queryModel.currentPage=1&queryModel.sortName=%s&queryModel.sortOrder=desc";
+    private static final int FULL = 0;
+    private static final int PROBE = 1;
+    /**
+     * 各类查询在自适应并发限制中的类型名，响应大小不同的请求分别比较延迟
+     */
+    private static final String[] KIND = {"full", "probe"};
+    private static final String VALIDATE_KIND = "validate";
+    /**
+     * 除cookie外所有查询共用的请求头
+     */
+    private final Map<String, String> baseHeader;
+    /**
+     * 每个学号编译好的请求，第一维为查询类型，第二维为cookie下标
+     */
+    private final Map<Student, RequestTemplate[][]> templates = new ConcurrentHashMap<>();
+
+    /**
+     * 未配置 proxyPool 时为null，直接连接
+     */
+    private final ProxyPool proxyPool;
+    /**
+     * 正在预热的 接口+代理
+     */
+    private final Set<List<Object>> warming = ConcurrentHashMap.newKeySet();
+    private final ExecutorService prewarmExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "prewarm");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public GradeFetcher(JSONObject config) {
+        this.baseHeader = getHeader(config.optString("userAgent", null));
+        this.proxyPool = ProxyPool.fromConfig(config.optJSONObject("proxyPool"));
+    }
+
+    public ProxyPool getProxyPool() {
+        return proxyPool;
+    }
+
+    /**
+     * 向学号所属的接口发送POST请求，这个接口应该返回一个JSON数据
+     */
+    public RequestResult fetch(Student student) {
+        return send(student, template(student, FULL), KIND[FULL]);
+    }
+
+    /**
+     * 增量查询：只获取按 deltaSortName 倒序排列的第一页，返回数据中的 totalCount 为全部记录数
+     */
+    public RequestResult fetchProbe(Student student) {
+        return send(student, template(student, PROBE), KIND[PROBE]);
+    }
+
+    /**
+     * 用指定cookie查询一条记录，用于检查登录状态是否有效<br>
+     * 只在启动时使用，不缓存编译结果
+     */
+    public RequestResult validate(Student student, String cookie) {
+        return send(student, compile(student, cookie, VALIDATE_DATA), VALIDATE_KIND);
+    }
+
+    /**
+     * 接口配置了自适应并发限制时，等待获得许可后再发送，并把结果反馈给限制器
+     */
+    private RequestResult send(Student student, RequestTemplate template, String kind) {
+        ConcurrencyLimiter limiter = student.getEndpoint().getLimiter();
+        if (limiter == null) return sendViaProxy(student, template);
+        long start;
+        try {
+            start = limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new RequestResult(e);
+        }
+        RequestResult result = null;
+        try {
+            result = sendViaProxy(student, template);
+            return result;
+        } finally {
+            limiter.release(start, result != null && result.isSucceed(), kind);
+        }
+    }
+
+    /**
+     * 配置了代理池时，经由学号固定使用的代理发送，并把结果反馈给代理池
+     */
+    private RequestResult sendViaProxy(Student student, RequestTemplate template) {
+        if (proxyPool == null) return SimpleHttps.send(template);
+        String key = proxyKey(student);
+        ProxyPool.Member member = proxyPool.select(key);
+        long start = System.nanoTime();
+        RequestResult result = SimpleHttps.send(template, member.getProxy());
+        proxyPool.report(member, key, result.isSucceed(), System.nanoTime() - start);
+        return result;
+    }
+
+    private static String proxyKey(Student student) {
+        return student.getEndpoint().getName() + "/" + student.getStudentID();
+    }
+
+    /**
+     * 取得学号当前cookie的编译结果，没有时编译并缓存
+     */
+    private RequestTemplate template(Student student, int type) {
+        RequestTemplate[][] compiled = templates.get(student);
+        if (compiled == null) {
+            int cookies = Math.max(1, student.getCookies().size());
+            templates.putIfAbsent(student, new RequestTemplate[][]{new RequestTemplate[cookies], new RequestTemplate[cookies]});
+            compiled = templates.get(student);
+        }
+        int cookieIndex = student.getCookieIndex();
+        RequestTemplate template = compiled[type][cookieIndex];
+        if (template == null) {
+            //并发编译得到的结果相同，后写入的覆盖先写入的即可
+            Endpoint endpoint = student.getEndpoint();
+            String postData = type == FULL ? POST_DATA : String.format(PROBE_DATA, endpoint.getDeltaPageSize(), endpoint.getDeltaSortName());
+            template = compile(student, student.getCookie(), postData);
+            compiled[type][cookieIndex] = template;
+        }
+        return template;
+    }
+
+    private RequestTemplate compile(Student student, String cookie, String postData) {
+        Endpoint endpoint = student.getEndpoint();
+        Map<String, String> header = new LinkedHashMap<>(baseHeader);
+        header.put("cookie", cookie);
+        return SimpleHttps.compilePOST(new SimpleHttps.Argument(endpoint.getRequestURL() + student.getStudentID() + postData)
+                .setRequestProperty(header)
+                .setConnectTimeout(endpoint.getConnectTimeout())
+                .setReadTimeout(endpoint.getReadTimeout()));
+    }
+
+    /**
+     * 异步预热这些学号查询时将使用的连接，同一接口经由同一代理只预热一次，上次预热还没结束时跳过<br>
+     * 预热在单独的线程中进行并使用接口自己的超时时间，无法连接的主机不会推迟其他接口的查询<br>
+     * 配置了代理池时经由每个学号固定使用的代理预热：不会从本机直接连接接口所在主机，
+     * 而Keep-Alive连接按代理区分，只有经由同一代理建立的连接才能被查询复用
+     */
+    public void prewarm(Collection<Student> students) {
+        Map<Endpoint, Set<Proxy>> targets = new LinkedHashMap<>();
+        for (Student student : students) {
+            Proxy proxy = proxyPool == null ? Proxy.NO_PROXY : proxyPool.select(proxyKey(student)).getProxy();
+            targets.computeIfAbsent(student.getEndpoint(), k -> new LinkedHashSet<>()).add(proxy);
+        }
+        targets.forEach((endpoint, proxies) -> proxies.forEach(proxy -> {
+            List<Object> key = List.of(endpoint, proxy);
+            if (warming.add(key)) {
+                prewarmExecutor.execute(() -> {
+                    try {
+                        prewarm(endpoint, proxy);
+                    } finally {
+                        warming.remove(key);
+                    }
+                });
+            }
+        }));
+    }
+
+    private void prewarm(Endpoint endpoint, Proxy proxy) {
+        RequestResult result = SimpleHttps.prewarm(endpoint.getRequestURL(), proxy, endpoint.getConnectTimeout(), endpoint.getReadTimeout());
+        if (!result.isSucceed()) {
+            System.out.println("Prewarm " + endpoint.getName() + (proxy == Proxy.NO_PROXY ? "" : " via " + proxy) +
+                               " failed: " + result.getErrorMsg());
+        }
+    }
+
+    private static Map<String, String> getHeader(String userAgent) {
+        Map<String, String> header = new LinkedHashMap<>();
+        header.put("Accept", "application/json, text/javascript, */*; q=0.01");
+        //header.put("Accept-Encoding", "gzip, deflate, br");
+        header.put("Accept-Language", "zh-cn,zh;q=0.5");
+        header.put("Connection", "keep-alive");
+        header.put("Content-Type", "application/x-www-form-urlencoded;charset=UTF-8");
+        header.put("DNT", "1");
+        header.put("sec-ch-ua", "\"Google Chrome\";v=\"108\", \"Chromium\";v=\"108\", \"Not=A?Brand\";v=\"24\"");
+        header.put("sec-ch-ua-mobile", "?0");
+        header.put("sec-ch-ua-platform", "\"Windows\"");
+        header.put("Sec-Fetch-Dest", "empty");
+        header.put("Sec-Fetch-Mode", "cors");
+        header.put("Sec-Fetch-Site", "same-origin");
+        header.put("sec-gpc", "1");
+        //指定User-Agent（如果有）
+        header.put("User-Agent", userAgent != null ? userAgent : "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/103.0.5060.66 Safari/537.36 Edg/103.0.1264.44");
+        header.put("X-Requested-With", "XMLHttpRequest");
+        return header;
+    }
+}
@@ -1,20 +1,26 @@
 package grade;
 
-import com.devccv.util.network.RequestResult;
+import com.devccv.util.network.HttpRecorder;
+import com.devccv.util.network.ProxyPool;
 import com.devccv.util.network.SimpleHttps;
-import com.devccv.util.push.WeChatPush;
+import grade.api.QueryServer;
+import grade.notify.NotifyDispatcher;
+import grade.notify.Outbox;
+import grade.pipeline.PollPipeline;
+import grade.schedule.PollSchedule;
+import grade.schedule.PriorityPolicy;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import javax.net.ssl.*;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
 import java.io.*;
-import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.X509Certificate;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 public class GradeReminder {
@@ -35,171 +41,195 @@ public class GradeReminder {
      */
     private static final String CONFIG_FILE_PATH = "config.json";
     /**
-     * 默认只返回10个科目的成绩，添加这个参数获取所有科目成绩
+     * DNS缓存时间（秒）
+     */
+    private static final int DEFAULT_DNS_CACHE_TTL = 300;
+    /**
+     * 在下一轮查询开始前多久预热连接（毫秒），需要小于服务器的Keep-Alive超时时间，0表示不预热
+     */
+    private static final long DEFAULT_PREWARM_LEAD = 2000;
+    /**
+     * JDK默认每个主机保留5个空闲连接
+     */
+    private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    private static final String DEFAULT_REPLAY_ITERATIONS = "1000";
+    /**
+     * 启动检查时每个接口同时进行的检查数，不超过接口的 maxConcurrency；0表示跳过启动检查
+     */
+    private static final int DEFAULT_STARTUP_PARALLELISM = 8;
+    /**
+     * 单次运行模式退出前等待新通知首次投递的最长时间（毫秒）
+     */
+    private static final long DEFAULT_DELIVERY_TIMEOUT = 30000;
+    private static final String DEFAULT_JFR_FILE = "gradereminder.jfr";
+    private static final String JFR_SETTINGS = "/jfr/gradereminder.jfc";
+    /**
+     * 持续记录时只保留最近这段时间的事件
      */
-    private static final String POST_DATA = "&queryModel.showCount=5000&queryModel.currentPage=1";
+    private static final Duration JFR_MAX_AGE = Duration.ofHours(6);
 
     public static void main(String[] args) throws IOException {
         System.out.println("Configuration File PATH: " + CONFIG_FILE_PATH);
 
+        /*命令行参数：--record <file> 记录所有请求；--replay <file> [--iterations n] [--pipeline] 离线回放压测；
+          --jfr [file] 按内置配置持续记录JFR事件，退出时写入文件；--once 查询一轮后退出，退出码见 BatchRun*/
+        Map<String, String> options = parseArgs(args);
+        boolean once = options.containsKey("--once");
+
         /*读取配置文件*/
         JSONObject configFile = readConfigFile();
         if (configFile == null) {
             System.out.println("Read configuration file ERROR." + "\n" + CONFIG_FILE_PATH);
+            if (once) System.exit(BatchRun.EXIT_ERROR);
             return;
         }
 
-        /*生成请求头*/
-        /*为了支持同时查询不同学号，cookie改为在下面读取，此处留空*/
-        Map<String, String> header = getHeader("");
-
-        //准备微信推送组件
-        WeChatPush weChatPush = null;
-        JSONArray PushTargetByUserID = null;
-        try {
-            JSONObject weChatPushJson = configFile.getJSONObject("WeChatPush");
-            JSONObject wxPushConfig = weChatPushJson.getJSONObject("config");
-            weChatPush = new WeChatPush(wxPushConfig.getString("corpId"), wxPushConfig.getInt("agentID"), wxPushConfig.getString("corpSecret"));
-            PushTargetByUserID = weChatPushJson.getJSONArray("PushTargetByUserID");
-        } catch (Exception ignored) {
+        if (options.containsKey("--jfr")) {
+            String destination = options.get("--jfr").isEmpty() ? DEFAULT_JFR_FILE : options.get("--jfr");
+            startFlightRecording(Path.of(destination));
+            System.out.println("Flight recording to " + destination);
+        }
+        if (options.containsKey("--replay")) {
+            ReplayBenchmark.run(configFile, Path.of(options.get("--replay")),
+                    Integer.parseInt(options.getOrDefault("--iterations", DEFAULT_REPLAY_ITERATIONS)), options.containsKey("--pipeline"));
+            return;
+        }
+        if (options.containsKey("--record")) {
+            HttpRecorder recorder = new HttpRecorder(Path.of(options.get("--record")));
+            SimpleHttps.setRecorder(recorder);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    recorder.close();
+                } catch (IOException ignored) {
+                }
+            }));
+            System.out.println("Recording to " + options.get("--record"));
         }
 
-        boolean[] firstUpdate = new boolean[configFile.getJSONArray("studentID").length()];
-        Arrays.fill(firstUpdate, true);
-
-        //notifyNum存储已有成绩的科目数量，在有变化时推送到tgBot，为了支持多用户改为数组
-        int[] notifyNum = new int[configFile.getJSONArray("studentID").length()];
-        String tgBotUrl = configFile.getString("tgBotUrl");
+        //单次运行时没有配置并发上限的接口按学号数并行查询
+        if (once) BatchRun.applyDefaults(configFile);
+        //按接口和学号合并订阅者，同一学号每轮只查询一次
+        Map<String, Endpoint> endpoints = Endpoint.fromConfig(configFile);
+        List<Student> students = Student.fromConfig(configFile, endpoints);
+        GradeFetcher fetcher = new GradeFetcher(configFile);
+        System.out.println(students.size() + " students, " + configFile.getJSONArray("studentID").length() + " subscribers, " +
+                           endpoints.size() + " endpoints");
+
+        //加载通知渠道
+        NotifyDispatcher notifyDispatcher = NotifyDispatcher.load(configFile);
+        System.out.println("Notification channels: " + notifyDispatcher.channelNames());
+
+        //所有请求共享一个带TLS会话缓存的SSLContext，并缓存DNS解析结果
+        SimpleHttps.setDnsCacheTtl(configFile.optInt("dnsCacheTtl", DEFAULT_DNS_CACHE_TTL));
+        //每个主机保留的空闲连接数不少于该主机的并发数，保证并发请求都能复用连接
+        int maxConcurrency = 1;
+        for (Endpoint endpoint : endpoints.values()) {
+            maxConcurrency = Math.max(maxConcurrency, endpoint.getMaxConcurrency());
+        }
+        SimpleHttps.setMaxIdleConnectionsPerHost(Math.max(DEFAULT_MAX_IDLE_CONNECTIONS, maxConcurrency));
         try {
-            disableSSLCertCheck();
+            SimpleHttps.useManagedSSLContext(true);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
-        DateTimeFormatter df = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        LocalDateTime now;
-        while (true) {
-            now = LocalDateTime.now();
-            String time = "[" + df.format(now) + "]";
-            System.out.println(time);
-
-            //循环查询配置文件中所有学号的成绩
-            for (int i = 0; i < configFile.getJSONArray("studentID").length(); i++) {
-                /*从教务系统接口获得原始数据*/
-                RequestResult res;
-                //替换请求头中的cookie为对应学号的
-                header.replace("cookie", configFile.getJSONArray("cookie").getString(i));
-                //指定User-Agent（如果有）
-                if (configFile.has("userAgent")) {
-                    header.replace("User-Agent", configFile.getString("userAgent"));
-                }
-                //发送POST请求，这个接口应该返回一个JSON数据
-                res = SimpleHttps.POST(new SimpleHttps.Argument(configFile.getString("requestURL") + configFile.getJSONArray("studentID").getString(i) + POST_DATA)
-                        .setRequestProperty(header));
-
-                if (!res.isSucceed()) {
-                    System.out.println(res.getErrorMsg());
-                    //res.getException().printStackTrace();
-                    //可能出现网络错误，延迟后下一轮重新查询
-                    break;
-                }
-                JSONObject json = new JSONObject(res.getResponse());
-                JSONArray items = json.getJSONArray("items");
-                if (items.length() < 1) {
-                    //没有成绩，延迟后下一轮重新查询
-                    if (firstUpdate[i]) {
-                        firstUpdate[i] = false;
-                        notifyNum[i] = items.length();
-                    }
-                    System.out.println("No grades yet.");
-                    break;
-                }
-
-                if (configFile.getInt("debug") == 1) {
-                    debugFileOutput(json);
-                }
-
-                class ScoreItem implements Comparable<ScoreItem> {
-                    final int score;
-                    final double credit;
-                    final String name;
-
-                    public ScoreItem(int score, double credit, String name) {
-                        this.score = score;
-                        this.credit = credit;
-                        this.name = name;
-                    }
+        fetcher.prewarm(students);
 
-                    @Override
-                    public String toString() {
-                        return score + "\t" + name + "[" + credit + "]";
-                    }
-
-                    @Override
-                    public int compareTo(ScoreItem o) {
-                        //按分数排序
-                        int scoreDiff = o.score - this.score;
-                        if (scoreDiff != 0) {
-                            return scoreDiff;
-                        }
-                        return (int) Math.ceil(o.credit - this.credit);
-                    }
-                }
-                /*从JSON中取出每个科目的成绩*/
-                double xf = 0; //学分
-                double jd = 0; //绩点
-                List<ScoreItem> scoreItemArray = new ArrayList<>();
-                StringBuilder score = new StringBuilder();
-                score.append("[").append(items.getJSONObject(0).getString("xm")).append("]\n"); //学生姓名
-                for (int j = 0; j < items.length(); j++) {
-                    JSONObject jsonObject = items.getJSONObject(j);
-                    scoreItemArray.add(new ScoreItem(Integer.parseInt(jsonObject.getString("bfzcj")),
-                            Double.parseDouble(jsonObject.getString("xf")), jsonObject.getString("kcmc")));
-                    //score.append(jsonObject.getString("bfzcj")).append("\t"); //百分制成绩
-                    //score.append(jsonObject.getString("kcmc")).append("\n"); //课程名称
-                    xf += Double.parseDouble(jsonObject.getString("xf"));
-                    jd += Double.parseDouble(jsonObject.getString("xf")) * Double.parseDouble(jsonObject.getString("jd"));
-                }
-                Collections.sort(scoreItemArray); //排序成绩
-                for (ScoreItem item : scoreItemArray) {
-                    score.append(item).append("\n");
-                }
-                score.append("Current GPA: ").append(String.format("%.2f", jd / xf)).append("\n");
-                System.out.print(score);
+        //按时间窗口安排每个学号的查询时间，不在窗口内时不会唤醒
+        PollSchedule schedule = PollSchedule.fromConfig(configFile);
+        Poller poller = new Poller(fetcher, notifyDispatcher, configFile.getInt("debug") == 1);
+        //配置了发件箱时，成绩更新先写入本地发件箱，异步投递，失败的渠道按退避重试
+        Outbox outbox;
+        try {
+            outbox = Outbox.open(configFile, notifyDispatcher);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        poller.setOutbox(outbox);
+        if (once) {
+            //单次运行：跳过启动检查和查询接口，恢复状态后查询一轮，保存状态并退出
+            PollPipeline pipeline = new PollPipeline(poller, endpoints.values(), configFile);
+            int exitCode;
+            try {
+                exitCode = BatchRun.run(students, poller, pipeline, StateStore.fromConfig(configFile),
+                        configFile.optLong("deliveryTimeout", DEFAULT_DELIVERY_TIMEOUT));
+            } catch (InterruptedException e) {
+                exitCode = BatchRun.EXIT_ERROR;
+            } finally {
+                pipeline.close();
+                endpoints.values().forEach(Endpoint::shutdown);
+                if (fetcher.getProxyPool() != null) fetcher.getProxyPool().close();
+                if (outbox != null) outbox.close();
+                notifyDispatcher.close();
+            }
+            System.exit(exitCode);
+        }
+        //启动时并行检查所有cookie，顺便完成第一次查询
+        int startupParallelism = configFile.optInt("startupParallelism", DEFAULT_STARTUP_PARALLELISM);
+        if (startupParallelism > 0) {
+            StartupValidator.validate(students, fetcher, poller, startupParallelism, configFile.optBoolean("warmOnStartup", true));
+        }
 
-                /*推送模块：检查成绩是否有更新*/
-                if (firstUpdate[i]) {
-                    firstUpdate[i] = false;
-                    notifyNum[i] = items.length();
-                } else if (items.length() != notifyNum[i]) {
-                    /*推送成绩更新到Telegram*/
-                    if (tgBotUrl != null && !tgBotUrl.isBlank()) {
-                        notifyNum[i] = items.length();
-                        System.out.println("Push Notification...");
-                        /*推送成绩更新到tgBot*/
-                        RequestResult result = SimpleHttps.POST(tgBotUrl + "&text=" + URLEncoder.encode(time + "\n" + score, StandardCharsets.UTF_8));
-                        if (!result.isSucceed()) {
-                            System.out.println("Notification push failed: " + result.getErrorMsg());
-                        }
-                    }
+        PollPipeline pipeline = new PollPipeline(poller, endpoints.values(), configFile);
+        //本地成绩查询接口，直接读取查询循环的缓存，需要刷新时经由流水线查询
+        QueryServer queryServer = QueryServer.start(configFile, students, poller, pipeline);
+        ProxyPool proxyPool = fetcher.getProxyPool();
+        if (proxyPool != null) {
+            //所有接口都经由代理池查询，逐个检查；不在查询窗口内时暂停
+            List<String> targets = new ArrayList<>();
+            endpoints.values().forEach(endpoint -> targets.add(endpoint.getRequestURL()));
+            proxyPool.startHealthCheck(targets, () -> schedule.isActive(LocalDateTime.now()));
+        }
+        if (queryServer != null) {
+            queryServer.putMetrics("stages", pipeline::metrics);
+            if (proxyPool != null) queryServer.putMetrics("proxies", proxyPool::metrics);
+        }
+        PollLoop pollLoop = new PollLoop(students, poller, pipeline, fetcher, schedule, PriorityPolicy.fromConfig(configFile),
+                configFile.optLong("prewarmLead", DEFAULT_PREWARM_LEAD));
+        try {
+            pollLoop.run();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (queryServer != null) queryServer.close();
+            pipeline.close();
+            endpoints.values().forEach(Endpoint::shutdown);
+            if (proxyPool != null) proxyPool.close();
+            if (outbox != null) outbox.close();
+            notifyDispatcher.close();
+        }
+    }
 
-                    /*推送成绩更新到微信*/
-                    if (weChatPush != null && PushTargetByUserID != null) {
-                        weChatPush.setPushTargetByUserID(List.of(PushTargetByUserID.getString(i)));
-                        weChatPush.pushTextMessage(time + "\n" + score);
-                    }
-                }
+    /**
+     * 用内置的 gradereminder.jfc 开始持续记录，退出时写入destination，运行中也可以用 jcmd &lt;pid&gt; JFR.dump name=GradeReminder 导出
+     */
+    private static void startFlightRecording(Path destination) throws IOException {
+        try (Reader reader = new InputStreamReader(Objects.requireNonNull(GradeReminder.class.getResourceAsStream(JFR_SETTINGS)), StandardCharsets.UTF_8)) {
+            Recording recording = new Recording(Configuration.create(reader));
+            recording.setName("GradeReminder");
+            recording.setToDisk(true);
+            recording.setMaxAge(JFR_MAX_AGE);
+            recording.setDumpOnExit(true);
+            recording.setDestination(destination);
+            recording.start();
+        } catch (ParseException e) {
+            throw new IllegalStateException("Invalid " + JFR_SETTINGS, e);
+        }
+    }
 
-                /*等待1s后查询下一个学号的成绩*/
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                }
+    /**
+     * 解析形如 --name value 的命令行参数
+     */
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) continue;
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(args[i], args[++i]);
+            } else {
+                options.put(args[i], "");
             }
-
-            //等待进入下一轮查询
-            printDelay(configFile.getInt("checkDelay"));
         }
+        return options;
     }
 
     private static JSONObject readConfigFile() {
@@ -220,6 +250,22 @@ public class GradeReminder {
                 ).put("PushTargetByUserID", new JSONArray(System.getenv("PushTargetByUserID").split(","))));
             }
             if (System.getenv("userAgent") != null) jsonObject.put("userAgent", System.getenv("userAgent"));
+            if (System.getenv("webhookUrl") != null) jsonObject.put("webhookUrl", System.getenv("webhookUrl"));
+            if (System.getenv("endpoints") != null) jsonObject.put("endpoints", new JSONObject(System.getenv("endpoints")));
+            if (System.getenv("endpoint") != null) jsonObject.put("endpoint", new JSONArray(System.getenv("endpoint").split(",")));
+            if (System.getenv("startupParallelism") != null) jsonObject.put("startupParallelism", Integer.parseInt(System.getenv("startupParallelism")));
+            if (System.getenv("warmOnStartup") != null) jsonObject.put("warmOnStartup", Boolean.parseBoolean(System.getenv("warmOnStartup")));
+            if (System.getenv("pipeline") != null) jsonObject.put("pipeline", new JSONObject(System.getenv("pipeline")));
+            if (System.getenv("api") != null) jsonObject.put("api", new JSONObject(System.getenv("api")));
+            if (System.getenv("schedule") != null) jsonObject.put("schedule", new JSONArray(System.getenv("schedule")));
+            if (System.getenv("priority") != null) jsonObject.put("priority", new JSONObject(System.getenv("priority")));
+            if (System.getenv("dnsCacheTtl") != null) jsonObject.put("dnsCacheTtl", Integer.parseInt(System.getenv("dnsCacheTtl")));
+            if (System.getenv("prewarmLead") != null) jsonObject.put("prewarmLead", Long.parseLong(System.getenv("prewarmLead")));
+            if (System.getenv("proxyPool") != null) jsonObject.put("proxyPool", new JSONObject(System.getenv("proxyPool")));
+            if (System.getenv("outbox") != null) jsonObject.put("outbox", new JSONObject(System.getenv("outbox")));
+            if (System.getenv("stateFile") != null) jsonObject.put("stateFile", System.getenv("stateFile"));
+            if (System.getenv("deliveryTimeout") != null) jsonObject.put("deliveryTimeout", Long.parseLong(System.getenv("deliveryTimeout")));
+            if (System.getenv("notifyTimeout") != null) jsonObject.put("notifyTimeout", Long.parseLong(System.getenv("notifyTimeout")));
             return jsonObject;
         }
         File configFile = new File(CONFIG_FILE_PATH);
@@ -229,8 +275,12 @@ public class GradeReminder {
             jsonObject.put("cookie", new JSONArray().put(0, "route=; JSESSIONID=").put(1, "route=; JSESSIONID="));
             jsonObject.put("studentID", new JSONArray().put(0, "0000000001").put(1, "0000000002"));
             jsonObject.put("checkDelay", 10000);
+            jsonObject.put("prewarmLead", 2000);
+            jsonObject.put("dnsCacheTtl", 300);
             jsonObject.put("debug", 0);
             jsonObject.put("tgBotUrl", "");
+            jsonObject.put("webhookUrl", "");
+            jsonObject.put("notifyTimeout", 10000);
             jsonObject.put("WeChatPush", new JSONObject().put("config", new JSONObject()
                     .put("corpId", "").put("agentID", 0).put("corpSecret", "")
             ).put("PushTargetByUserID", new JSONArray().put("").put("")));
@@ -259,7 +309,7 @@ public class GradeReminder {
         }
     }
 
-    private static void debugFileOutput(JSONObject jsonObject) {
+    static void debugFileOutput(JSONObject jsonObject) {
         String filePath = GradeReminder.class.getResource("").getPath();
         File debugFile = new File(filePath + "debug.json");
         if (!debugFile.exists()) {
@@ -280,64 +330,4 @@ public class GradeReminder {
             //写出文件失败
         }
     }
-
-    private static Map<String, String> getHeader(String cookie) {
-        Map<String, String> header = new HashMap<>();
-        header.put("Accept", "application/json, text/javascript, */*; q=0.01");
-        //header.put("Accept-Encoding", "gzip, deflate, br");
-        header.put("Accept-Language", "zh-cn,zh;q=0.5");
-        header.put("Connection", "keep-alive");
-        header.put("Content-Type", "application/x-www-form-urlencoded;charset=UTF-8");
-        header.put("cookie", cookie);
-        header.put("DNT", "1");
-        header.put("sec-ch-ua", "\"Google Chrome\";v=\"108\", \"Chromium\";v=\"108\", \"Not=A?Brand\";v=\"24\"");
-        header.put("sec-ch-ua-mobile", "?0");
-        header.put("sec-ch-ua-platform", "\"Windows\"");
-        header.put("Sec-Fetch-Dest", "empty");
-        header.put("Sec-Fetch-Mode", "cors");
-        header.put("Sec-Fetch-Site", "same-origin");
-        header.put("sec-gpc", "1");
-        header.put("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/103.0.5060.66 Safari/537.36 Edg/103.0.1264.44");
-        header.put("X-Requested-With", "XMLHttpRequest");
-        return header;
-    }
-
-    private static void printDelay(long millis) {
-        System.out.println("=".repeat(15) + "Wait " + millis + "ms" + "=".repeat(15));
-        try {
-            Thread.sleep(millis);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    public static void disableSSLCertCheck() throws NoSuchAlgorithmException, KeyManagementException {
-        // Create a trust manager that does not validate certificate chains
-        TrustManager[] trustAllCerts = new TrustManager[]{new X509TrustManager() {
-            public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-                return null;
-            }
-
-            public void checkClientTrusted(X509Certificate[] certs, String authType) {
-            }
-
-            public void checkServerTrusted(X509Certificate[] certs, String authType) {
-            }
-        }};
-
-        // Install the all-trusting trust manager
-        SSLContext sc = SSLContext.getInstance("SSL");
-        sc.init(null, trustAllCerts, new java.security.SecureRandom());
-        HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
-
-        // Create all-trusting host name verifier
-        HostnameVerifier allHostsValid = new HostnameVerifier() {
-            public boolean verify(String hostname, SSLSession session) {
-                return true;
-            }
-        };
-
-        // Install the all-trusting host verifier
-        HttpsURLConnection.setDefaultHostnameVerifier(allHostsValid);
-    }
 }
@@ -0,0 +1,31 @@
+package grade;
+
+import jdk.jfr.*;
+
+/**
+ * 一个学号一次查询的JFR事件，从提交查询开始到最后一个阶段结束，包括在流水线中排队的时间
+ */
+@Name("grade.Poll")
+@Label("Poll")
+@Category({"GradeReminder", "Poll"})
+@Description("One poll of a student, from submission to the last stage")
+@StackTrace(false)
+final class PollEvent extends Event {
+    @Label("Student ID")
+    String studentID;
+    @Label("Endpoint")
+    String endpoint;
+    @Label("Phase")
+    @Description("Last stage the poll reached: fetch, parse, diff, render or notify")
+    String phase;
+    @Label("Outcome")
+    @Description("unchanged, changed, no-grades, network-error or session-expired")
+    String outcome;
+    @Label("Response Chars")
+    long responseChars;
+    @Label("Items")
+    int items;
+    @Label("Fetch Time")
+    @Timespan(Timespan.MILLISECONDS)
+    long fetchMillis;
+}
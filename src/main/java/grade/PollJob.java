@@ -0,0 +1,75 @@
+package grade;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一次查询在 查询 → 解析 → 比较 → 渲染 → 推送 各阶段之间传递的状态<br>
+ * 同一时间只会被一个阶段处理
+ */
+public final class PollJob {
+    private final Student student;
+    private final String time;
+    private final Runnable onComplete;
+    private final AtomicBoolean completed = new AtomicBoolean();
+    JSONObject json;
+    Transcript transcript;
+    String score;
+    boolean changed;
+    boolean fetchFailed;
+    long fetchMillis;
+    /**
+     * 到达的最后一个阶段与查询结果，记录在 {@link PollEvent} 中
+     */
+    String phase = "fetch";
+    String outcome = "unchanged";
+    long responseChars;
+    private final PollEvent event = new PollEvent();
+
+    /**
+     * @param student    要查询的学号
+     * @param time       本轮查询的时间，形如 [yyyy-MM-dd HH:mm:ss]
+     * @param onComplete 查询结束（包括中途结束）时调用，可以为null
+     */
+    public PollJob(Student student, String time, Runnable onComplete) {
+        this.student = student;
+        this.time = time;
+        this.onComplete = onComplete;
+        event.begin();
+    }
+
+    public Student getStudent() {
+        return student;
+    }
+
+    public String getTime() {
+        return time;
+    }
+
+    /**
+     * @return 是否因网络错误没能连接教务系统
+     */
+    public boolean isFetchFailed() {
+        return fetchFailed;
+    }
+
+    /**
+     * 结束查询，多次调用只有第一次有效
+     */
+    public void complete() {
+        if (!completed.compareAndSet(false, true)) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.studentID = student.getStudentID();
+            event.endpoint = student.getEndpoint().getName();
+            event.phase = phase;
+            event.outcome = outcome;
+            event.responseChars = responseChars;
+            event.items = transcript == null ? 0 : transcript.size();
+            event.fetchMillis = fetchMillis;
+            event.commit();
+        }
+        if (onComplete != null) onComplete.run();
+    }
+}
@@ -0,0 +1,187 @@
+package grade;
+
+import grade.pipeline.PollPipeline;
+import grade.schedule.PollSchedule;
+import grade.schedule.PriorityPolicy;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 常驻查询循环<br>
+ * 主线程只负责调度：睡眠到最早的下次查询时间，把到期的学号提交给查询流水线；
+ * 查询结束后由流水线线程安排该学号的下次查询时间并唤醒主线程
+ */
+public class PollLoop {
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private final List<Student> students;
+    private final Poller poller;
+    private final PollPipeline pipeline;
+    private final GradeFetcher fetcher;
+    private final PollSchedule schedule;
+    private final PriorityPolicy priority;
+    private final long prewarmLead;
+    /**
+     * 正在查询中的学号，只由主线程读写
+     */
+    private final Set<Student> inFlight = new HashSet<>();
+    private final BlockingQueue<Student> completed = new LinkedBlockingQueue<>();
+    private boolean pendingSummary = false;
+    private long reportedFetches = 0;
+    private long reportedNotifications = 0;
+    private long reportedChars = 0;
+
+    /**
+     * @param priority 按成绩变化可能性调整各学号的查询间隔，为null时所有学号间隔相同
+     */
+    public PollLoop(List<Student> students, Poller poller, PollPipeline pipeline, GradeFetcher fetcher, PollSchedule schedule,
+                    PriorityPolicy priority, long prewarmLead) {
+        this.students = students;
+        this.poller = poller;
+        this.pipeline = pipeline;
+        this.fetcher = fetcher;
+        this.schedule = schedule;
+        this.priority = priority;
+        this.prewarmLead = prewarmLead;
+    }
+
+    /**
+     * 运行查询循环，所有学号都不再有查询窗口时返回
+     */
+    public void run() throws InterruptedException {
+        LocalDateTime now = LocalDateTime.now();
+        for (Student student : students) {
+            //启动时已查询过的学号按正常间隔安排下次查询
+            student.setNextPoll(student.getFetchedAt() > 0 ? schedule.nextPoll(now) : schedule.firstPoll(now));
+        }
+        while (true) {
+            //一批查询全部完成后输出统计
+            if (drainCompleted() && inFlight.isEmpty()) {
+                printSummary();
+            }
+            LocalDateTime next = earliestPoll();
+            if (next == null && inFlight.isEmpty()) {
+                System.out.println("No more polling windows, exit.");
+                return;
+            }
+
+            //等待到下次查询时间，期间有查询完成则提前醒来重新计算
+            long wait = next == null ? Long.MAX_VALUE : Duration.between(LocalDateTime.now(), next).toMillis();
+            if (wait > 0) {
+                if (inFlight.isEmpty()) {
+                    System.out.println("=".repeat(15) + "Wait " + wait + "ms" + "=".repeat(15));
+                }
+                //在查询开始前预热连接，握手耗时不计入查询时间
+                if (next != null && prewarmLead > 0 && wait > prewarmLead) {
+                    if (awaitCompletion(wait - prewarmLead)) continue;
+                    prewarm(next);
+                    wait = Duration.between(LocalDateTime.now(), next).toMillis();
+                }
+                if (wait > 0 && awaitCompletion(wait)) continue;
+            }
+
+            now = LocalDateTime.now();
+            String time = "[" + DATE_TIME_FORMATTER.format(now) + "]";
+            for (Student student : students) {
+                if (inFlight.contains(student) || student.getNextPoll() == null || student.getNextPoll().isAfter(now)) {
+                    continue;
+                }
+                inFlight.add(student);
+                Runnable onComplete = () -> {
+                    student.setNextPoll(schedule.nextPoll(LocalDateTime.now(), intervalFactor(student)));
+                    completed.add(student);
+                };
+                //正在被查询接口刷新的学号本次跳过
+                if (!pipeline.submit(student, time, onComplete)) onComplete.run();
+            }
+        }
+    }
+
+    /**
+     * 等待查询完成
+     *
+     * @return 等待期间是否有查询完成
+     */
+    private boolean awaitCompletion(long millis) throws InterruptedException {
+        Student student = completed.poll(millis, TimeUnit.MILLISECONDS);
+        if (student == null) return false;
+        completed.add(student);
+        return true;
+    }
+
+    /**
+     * @return 上次输出统计后是否有查询完成
+     */
+    private boolean drainCompleted() {
+        List<Student> done = new ArrayList<>();
+        completed.drainTo(done);
+        done.forEach(inFlight::remove);
+        if (!done.isEmpty()) pendingSummary = true;
+        return pendingSummary;
+    }
+
+    /**
+     * 预热将在next到期的学号查询时使用的连接
+     */
+    private void prewarm(LocalDateTime next) {
+        List<Student> due = new ArrayList<>();
+        for (Student student : students) {
+            if (!inFlight.contains(student) && next.equals(student.getNextPoll())) {
+                due.add(student);
+            }
+        }
+        fetcher.prewarm(due);
+    }
+
+    /**
+     * @return 不在查询中的学号的最早下次查询时间，都不再查询时返回null
+     */
+    private LocalDateTime earliestPoll() {
+        LocalDateTime earliest = null;
+        for (Student student : students) {
+            if (inFlight.contains(student)) continue;
+            LocalDateTime next = student.getNextPoll();
+            if (next != null && (earliest == null || next.isBefore(earliest))) {
+                earliest = next;
+            }
+        }
+        return earliest;
+    }
+
+    private void printSummary() {
+        pendingSummary = false;
+        System.out.println("Fetches: " + (poller.getFetchCount() - reportedFetches) + " (total " + poller.getFetchCount() + "), " +
+                           "Received: " + (poller.getFetchChars() - reportedChars) + " chars, " +
+                           "Notifications: " + (poller.getNotifyCount() - reportedNotifications) + " (total " + poller.getNotifyCount() + ")");
+        reportedFetches = poller.getFetchCount();
+        reportedChars = poller.getFetchChars();
+        reportedNotifications = poller.getNotifyCount();
+        System.out.println(pipeline.summary());
+        Set<Endpoint> adaptive = new LinkedHashSet<>();
+        for (Student student : students) {
+            if (student.getEndpoint().getLimiter() != null) adaptive.add(student.getEndpoint());
+        }
+        for (Endpoint endpoint : adaptive) {
+            System.out.println("Concurrency limit: " + endpoint.getName() + " " + endpoint.getConcurrencyLimit() +
+                               " (drops " + endpoint.getLimiter().getDrops() + ")");
+        }
+        if (fetcher.getProxyPool() != null) System.out.println(fetcher.getProxyPool().summary());
+        if (poller.getOutbox() != null && poller.getOutbox().pendingCount() > 0) {
+            System.out.println("Outbox: " + poller.getOutbox().pendingCount() + " notifications awaiting retry");
+        }
+        for (Student student : students) {
+            System.out.println("Next poll: " + student.getStudentID() + " at " +
+                               (student.getNextPoll() == null ? "never" : DATE_TIME_FORMATTER.format(student.getNextPoll())) +
+                               (priority == null ? "" : String.format(" (interval x%.2f)", intervalFactor(student))));
+        }
+    }
+
+    private double intervalFactor(Student student) {
+        return priority == null ? 1 : priority.intervalFactor(student, students);
+    }
+}
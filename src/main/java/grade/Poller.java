@@ -0,0 +1,276 @@
+package grade;
+
+import com.devccv.util.network.RequestResult;
+import grade.notify.GradeEvent;
+import grade.notify.NotifyDispatcher;
+import grade.notify.Outbox;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 查询单个学号的成绩，检查是否有更新，有更新时推送给该学号的每个订阅者<br>
+ * 一次查询分为 查询 → 解析 → 比较 → 渲染 → 推送 五个阶段，可以由 {@link #poll(Student, String)} 同步完成，
+ * 也可以由 {@link grade.pipeline.PollPipeline} 在各自的线程池中分阶段完成
+ */
+public class Poller {
+    /**
+     * 表示出现网络错误的请求结果
+     */
+    private static final JSONObject FAILED = new JSONObject();
+    private final GradeFetcher fetcher;
+    private final NotifyDispatcher notifyDispatcher;
+    private final boolean debug;
+    /**
+     * 为真时不输出到控制台，用于回放压测
+     */
+    private volatile boolean quiet = false;
+    private volatile Outbox outbox;
+    /**
+     * 查询次数与推送次数分开统计
+     */
+    private final AtomicLong fetchCount = new AtomicLong();
+    private final AtomicLong notifyCount = new AtomicLong();
+    /**
+     * 没有发件箱时同步推送失败的通知数
+     */
+    private final AtomicLong notifyFailures = new AtomicLong();
+    /**
+     * 从教务系统接收到的响应字符数
+     */
+    private final AtomicLong fetchChars = new AtomicLong();
+
+    public Poller(GradeFetcher fetcher, NotifyDispatcher notifyDispatcher, boolean debug) {
+        this.fetcher = fetcher;
+        this.notifyDispatcher = notifyDispatcher;
+        this.debug = debug;
+    }
+
+    /**
+     * 同步完成一次查询的全部阶段
+     *
+     * @param student 要查询的学号
+     * @param time    本轮查询的时间，形如 [yyyy-MM-dd HH:mm:ss]
+     * @return 是否成功连接教务系统，为假时可能出现网络错误
+     */
+    public boolean poll(Student student, String time) {
+        PollJob job = new PollJob(student, time, null);
+        student.beginPoll();
+        try {
+            if (fetch(job) && parse(job) && diff(job) && render(job)) {
+                notify(job);
+            }
+        } finally {
+            student.endPoll();
+            job.complete();
+        }
+        return !job.isFetchFailed();
+    }
+
+    /**
+     * 查询阶段：从教务系统接口获得原始数据
+     *
+     * @return 是否需要继续处理；成绩单没有变化、出现网络错误或登录失效时返回false
+     */
+    public boolean fetch(PollJob job) {
+        Student student = job.getStudent();
+        fetchCount.incrementAndGet();
+        long start = System.nanoTime();
+        JSONObject json = null;
+        Transcript cached = student.getTranscript();
+        if (student.getEndpoint().getDeltaPageSize() > 0 && cached != null) {
+            //增量查询：第一页的记录都已存在且总数没变时，沿用已有成绩单
+            json = request(job, true);
+            if (json == FAILED) {
+                job.fetchFailed = true;
+                return false;
+            }
+            if (json == null) return false;
+            JSONArray items = json.getJSONArray("items");
+            int totalCount = json.optInt("totalCount", -1);
+            if (totalCount == cached.size() && cached.containsAll(items)) {
+                student.update(cached.size());
+                student.setFetchedAt(System.currentTimeMillis());
+                log(student.getStudentID() + ": no change (" + (System.nanoTime() - start) / 1_000_000 + "ms)");
+                return false;
+            }
+            //第一页已包含全部记录时不需要再查询
+            if (totalCount < 0 || totalCount > items.length()) json = null;
+        }
+        if (json == null) {
+            json = request(job, false);
+            if (json == FAILED) {
+                job.fetchFailed = true;
+                return false;
+            }
+            if (json == null) return false;
+        }
+        job.json = json;
+        job.fetchMillis = (System.nanoTime() - start) / 1_000_000;
+        return true;
+    }
+
+    /**
+     * 解析阶段：从JSON中取出每个科目的成绩
+     *
+     * @return 是否需要继续处理；还没有成绩时返回false
+     */
+    public boolean parse(PollJob job) {
+        Student student = job.getStudent();
+        job.phase = "parse";
+        JSONArray items = job.json.getJSONArray("items");
+        if (items.length() < 1) {
+            //没有成绩，延迟后下一轮重新查询
+            student.setTranscript(null);
+            student.setFetchedAt(System.currentTimeMillis());
+            student.update(0);
+            job.outcome = "no-grades";
+            log("No grades yet.");
+            return false;
+        }
+
+        if (debug) {
+            GradeReminder.debugFileOutput(job.json);
+        }
+        job.transcript = Transcript.parse(items);
+        job.json = null;
+        return true;
+    }
+
+    /**
+     * 比较阶段：更新缓存的成绩单，检查成绩是否有更新
+     *
+     * @return 总是返回true，没有更新时也需要输出成绩单
+     */
+    public boolean diff(PollJob job) {
+        Student student = job.getStudent();
+        job.phase = "diff";
+        student.setTranscript(job.transcript);
+        student.setFetchedAt(System.currentTimeMillis());
+        job.changed = student.update(job.transcript.size());
+        if (job.changed) {
+            student.setLastChangedAt(System.currentTimeMillis());
+            job.outcome = "changed";
+        }
+        return true;
+    }
+
+    /**
+     * 渲染阶段：生成成绩单文本并输出
+     *
+     * @return 成绩是否有更新，有更新时才需要推送
+     */
+    public boolean render(PollJob job) {
+        job.phase = "render";
+        job.score = job.transcript.render();
+        log(job.score.stripTrailing());
+        log("Fetched in " + job.fetchMillis + "ms");
+        return job.changed;
+    }
+
+    /**
+     * 推送阶段：推送给该学号的每个订阅者
+     *
+     * @return 总是返回true
+     */
+    public boolean notify(PollJob job) {
+        Student student = job.getStudent();
+        job.phase = "notify";
+        log("Push Notification...");
+        Outbox outbox = this.outbox;
+        Map<GradeEvent, Set<String>> events = new LinkedHashMap<>();
+        for (int subscriber : student.getSubscribers()) {
+            notifyCount.incrementAndGet();
+            GradeEvent event = new GradeEvent(subscriber, student.getStudentID(), job.getTime(), job.score);
+            if (outbox != null) {
+                //写入发件箱后立即返回，由发件箱异步投递和重试
+                switch (outbox.submit(event)) {
+                    case DUPLICATE -> log("Duplicate notification skipped.");
+                    case NO_CHANNELS -> log("No notification channel is configured, notification dropped.");
+                    default -> {
+                    }
+                }
+                continue;
+            }
+            events.put(event, null);
+        }
+        if (events.isEmpty()) return true;
+        /*并行推送成绩更新到所有通知渠道，所有订阅者的通知在每个渠道中合并发送*/
+        Map<GradeEvent, Set<String>> failed = notifyDispatcher.dispatchAll(events);
+        notifyFailures.addAndGet(failed.size());
+        failed.forEach((event, channels) -> log("Notification push to subscriber " + event.subscriber() + " failed: " + channels));
+        return true;
+    }
+
+    /**
+     * 发送一次查询请求
+     *
+     * @param probe 是否为增量查询的第一页
+     * @return 解析后的JSON；出现网络错误时返回 {@link #FAILED}；返回的不是JSON时返回null
+     */
+    private JSONObject request(PollJob job, boolean probe) {
+        Student student = job.getStudent();
+        RequestResult res = probe ? fetcher.fetchProbe(student) : fetcher.fetch(student);
+        if (!res.isSucceed()) {
+            log(student.getStudentID() + ": " + res.getErrorMsg());
+            job.outcome = "network-error";
+            //res.getException().printStackTrace();
+            return FAILED;
+        }
+        String response = res.getResponse();
+        fetchChars.addAndGet(response.length());
+        job.responseChars += response.length();
+        try {
+            return new JSONObject(response);
+        } catch (JSONException e) {
+            //cookie失效时接口返回登录页面，下次换用其他订阅者的cookie
+            log(student.getStudentID() + ": invalid response, session may have expired.");
+            student.rotateCookie();
+            job.outcome = "session-expired";
+            return null;
+        }
+    }
+
+    /**
+     * @param outbox 持久化发件箱，为null时直接同步推送
+     */
+    public void setOutbox(Outbox outbox) {
+        this.outbox = outbox;
+    }
+
+    public Outbox getOutbox() {
+        return outbox;
+    }
+
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    private void log(String message) {
+        if (!quiet) System.out.println(message);
+    }
+
+    public long getFetchCount() {
+        return fetchCount.get();
+    }
+
+    public long getNotifyCount() {
+        return notifyCount.get();
+    }
+
+    /**
+     * @return 没有发件箱时至少有一个渠道推送失败的通知数
+     */
+    public long getNotifyFailures() {
+        return notifyFailures.get();
+    }
+
+    public long getFetchChars() {
+        return fetchChars.get();
+    }
+}
@@ -0,0 +1,150 @@
+package grade;
+
+import com.devccv.util.network.HttpRecorder;
+import com.devccv.util.network.HttpReplayer;
+import com.devccv.util.network.SimpleHttps;
+import grade.notify.NotifyDispatcher;
+import grade.pipeline.PollPipeline;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 离线回放压测<br>
+ * 用 --record 记录的真实请求代替网络，以最快速度反复执行 查询 → 解析 → 比较 → 推送 的完整流程，
+ * 输出吞吐量、单次查询耗时分布与每次查询分配的堆内存，用于性能回归对比
+ */
+public final class ReplayBenchmark {
+    /**
+     * 每次都会变化、匹配记录时需要忽略的查询参数
+     */
+    private static final Set<String> IGNORED_PARAMETERS = Set.of("access_token", "text");
+    /**
+     * 正式计时前的预热轮数，让JIT完成编译
+     */
+    private static final int WARMUP_ITERATIONS = 3;
+
+    private ReplayBenchmark() {
+    }
+
+    /**
+     * @param config     配置文件，学号与推送渠道需与记录时一致
+     * @param recording  记录文件
+     * @param iterations 每个学号回放的查询次数
+     * @param pipelined  是否经由分阶段流水线执行，否则在当前线程同步执行
+     */
+    public static void run(JSONObject config, Path recording, int iterations, boolean pipelined) throws IOException {
+        List<HttpRecorder.Exchange> exchanges = HttpRecorder.read(recording);
+        System.out.println("Loaded " + exchanges.size() + " exchanges from " + recording);
+        HttpReplayer replayer = new HttpReplayer(exchanges, IGNORED_PARAMETERS, true);
+        SimpleHttps.setReplayer(replayer);
+
+        Map<String, Endpoint> endpoints = Endpoint.fromConfig(config);
+        List<Student> students = Student.fromConfig(config, endpoints);
+        PollPipeline pipeline = null;
+        try (NotifyDispatcher notifyDispatcher = NotifyDispatcher.load(config)) {
+            Poller poller = new Poller(new GradeFetcher(config), notifyDispatcher, false);
+            poller.setQuiet(true);
+            if (pipelined) {
+                //回放时不需要请求间隔
+                for (Endpoint endpoint : endpoints.values()) endpoint.setRequestGap(0);
+                pipeline = new PollPipeline(poller, endpoints.values(), config);
+            }
+            String time = "[replay]";
+
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                runIteration(poller, pipeline, students, time, null, 0);
+            }
+            long fetches = poller.getFetchCount();
+            long notifications = poller.getNotifyCount();
+            long misses = replayer.getMisses();
+
+            long[] latencies = new long[iterations * students.size()];
+            int n = 0;
+            long allocatedStart = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                runIteration(poller, pipeline, students, time, latencies, n);
+                n += students.size();
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedStart < 0 ? -1 : allocatedBytes() - allocatedStart;
+
+            Arrays.sort(latencies);
+            System.out.println("Polls: " + n + ", Notifications: " + (poller.getNotifyCount() - notifications) +
+                               ", Fetches: " + (poller.getFetchCount() - fetches) + ", Replay misses: " + (replayer.getMisses() - misses));
+            System.out.printf("Elapsed: %.1fms, Throughput: %.1f polls/s%n", elapsed / 1e6, n / (elapsed / 1e9));
+            if (n > 0) {
+                System.out.printf("Latency p50: %.3fms, p95: %.3fms, p99: %.3fms, max: %.3fms%n",
+                        percentile(latencies, 0.50), percentile(latencies, 0.95), percentile(latencies, 0.99), latencies[n - 1] / 1e6);
+            }
+            if (n > 0 && allocated >= 0) {
+                System.out.printf("Allocated: %.1f KB/poll, %.1f MB/s%n", allocated / 1024.0 / n, allocated / 1048576.0 / (elapsed / 1e9));
+            }
+            if (pipeline != null) System.out.println(pipeline.summary());
+        } finally {
+            if (pipeline != null) pipeline.close();
+            endpoints.values().forEach(Endpoint::shutdown);
+            SimpleHttps.setReplayer(null);
+        }
+    }
+
+    /**
+     * 每个学号查询一次，流水线模式下等待全部学号结束
+     *
+     * @param latencies 记录每次查询的耗时，为null时不记录
+     * @param offset    耗时写入latencies的起始下标
+     */
+    private static void runIteration(Poller poller, PollPipeline pipeline, List<Student> students, String time,
+                                     long[] latencies, int offset) {
+        if (pipeline == null) {
+            for (int i = 0; i < students.size(); i++) {
+                long t = System.nanoTime();
+                poller.poll(students.get(i), time);
+                if (latencies != null) latencies[offset + i] = System.nanoTime() - t;
+            }
+            return;
+        }
+        CountDownLatch latch = new CountDownLatch(students.size());
+        for (int i = 0; i < students.size(); i++) {
+            int index = offset + i;
+            long t = System.nanoTime();
+            pipeline.submit(students.get(i), time, () -> {
+                if (latencies != null) latencies[index] = System.nanoTime() - t;
+                latch.countDown();
+            });
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 所有存活线程累计分配的堆内存字节数，流水线的线程在压测期间一直存活；JVM不支持时返回-1
+     */
+    private static long allocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadMXBean)
+            || !threadMXBean.isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        long total = 0;
+        for (long bytes : threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+}
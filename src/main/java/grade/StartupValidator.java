@@ -0,0 +1,135 @@
+package grade;
+
+import com.devccv.util.network.RequestResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 启动检查<br>
+ * 检查所有学号的每个cookie是否有效，并输出汇总表；每个接口的检查请求在单独的线程池中执行，
+ * 同时进行的检查不超过 min(startupParallelism, maxConcurrency)，检查只查询一条记录，不等待请求间隔；
+ * 学号有可用的cookie时优先使用它，可选地顺便完成一次完整查询，作为比较成绩变化的基准，
+ * 完整查询在接口的查询线程中执行，与正常查询一样受请求间隔约束
+ */
+public class StartupValidator {
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private enum Status {
+        OK, EXPIRED, ERROR
+    }
+
+    private record CookieResult(Student student, int cookieNumber, String cookie, Status status, String message,
+                                long elapsedMillis) {
+    }
+
+    private StartupValidator() {
+    }
+
+    /**
+     * @param parallelism 每个接口同时进行的检查数上限，不超过接口的 maxConcurrency
+     * @param warm        是否对有可用cookie的学号完成一次完整查询
+     * @return 至少有一个可用cookie的学号数量
+     */
+    public static int validate(List<Student> students, GradeFetcher fetcher, Poller poller, int parallelism, boolean warm) {
+        long start = System.nanoTime();
+        List<CookieResult> results = new ArrayList<>();
+        List<CompletableFuture<Void>> studentFutures = new ArrayList<>();
+        Map<Endpoint, ExecutorService> checkExecutors = new HashMap<>();
+        poller.setQuiet(true);
+        try {
+            for (Student student : students) {
+                Endpoint endpoint = student.getEndpoint();
+                ExecutorService executor = checkExecutors.computeIfAbsent(endpoint, k -> newCheckExecutor(k, parallelism));
+                List<CompletableFuture<CookieResult>> cookieFutures = new ArrayList<>();
+                List<String> cookies = student.getCookies();
+                for (int i = 0; i < cookies.size(); i++) {
+                    int cookieNumber = i + 1;
+                    String cookie = cookies.get(i);
+                    cookieFutures.add(CompletableFuture.supplyAsync(() -> check(fetcher, student, cookieNumber, cookie), executor));
+                }
+                //同一学号的cookie都检查完后，选用有效的cookie并在接口的查询线程中完成预热查询
+                studentFutures.add(CompletableFuture.allOf(cookieFutures.toArray(new CompletableFuture<?>[0])).thenRunAsync(() -> {
+                    CookieResult valid = null;
+                    for (CompletableFuture<CookieResult> future : cookieFutures) {
+                        CookieResult result = future.join();
+                        synchronized (results) {
+                            results.add(result);
+                        }
+                        if (valid == null && result.status == Status.OK) valid = result;
+                    }
+                    if (valid != null) {
+                        student.preferCookie(valid.cookie);
+                        if (warm) {
+                            poller.poll(student, "[" + DATE_TIME_FORMATTER.format(LocalDateTime.now()) + "]");
+                        }
+                    }
+                }, warm ? endpoint::submit : executor));
+            }
+            CompletableFuture.allOf(studentFutures.toArray(new CompletableFuture<?>[0])).join();
+        } finally {
+            poller.setQuiet(false);
+            checkExecutors.values().forEach(ExecutorService::shutdown);
+        }
+
+        return printSummary(students, results, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static ExecutorService newCheckExecutor(Endpoint endpoint, int parallelism) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, endpoint.getMaxConcurrency())), r -> {
+            Thread thread = new Thread(r, "check-" + endpoint.getName() + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static CookieResult check(GradeFetcher fetcher, Student student, int cookieNumber, String cookie) {
+        long start = System.nanoTime();
+        RequestResult res = fetcher.validate(student, cookie);
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        if (!res.isSucceed()) {
+            return new CookieResult(student, cookieNumber, cookie, Status.ERROR, res.getErrorMsg(), elapsed);
+        }
+        try {
+            JSONObject json = new JSONObject(res.getResponse());
+            json.getJSONArray("items");
+            return new CookieResult(student, cookieNumber, cookie, Status.OK, "", elapsed);
+        } catch (JSONException e) {
+            //cookie失效时接口返回登录页面
+            return new CookieResult(student, cookieNumber, cookie, Status.EXPIRED, "session expired", elapsed);
+        }
+    }
+
+    private static int printSummary(List<Student> students, List<CookieResult> results, long elapsedMillis) {
+        System.out.println("=".repeat(15) + "Startup Check" + "=".repeat(15));
+        System.out.printf("%-14s %-10s %-6s %-8s %-6s %-8s %s%n", "StudentID", "Endpoint", "Cookie", "Status", "Items", "Time", "Message");
+        int usable = 0;
+        for (Student student : students) {
+            boolean ok = false;
+            if (student.getCookies().isEmpty()) {
+                System.out.printf("%-14s %-10s %-6s %-8s %-6s %-8s %s%n", student.getStudentID(), student.getEndpoint().getName(),
+                        "-", Status.ERROR, "-", "-", "no cookie configured");
+            }
+            for (CookieResult result : results) {
+                if (result.student != student) continue;
+                ok |= result.status == Status.OK;
+                Transcript transcript = student.getTranscript();
+                String items = result.status == Status.OK && student.getFetchedAt() > 0
+                        ? String.valueOf(transcript == null ? 0 : transcript.size()) : "-";
+                System.out.printf("%-14s %-10s %-6s %-8s %-6s %-8s %s%n", student.getStudentID(), student.getEndpoint().getName(),
+                        "#" + result.cookieNumber, result.status, items, result.elapsedMillis + "ms", result.message);
+            }
+            if (ok) usable++;
+        }
+        System.out.println(usable + "/" + students.size() + " students usable, checked in " + elapsedMillis + "ms");
+        return usable;
+    }
+}
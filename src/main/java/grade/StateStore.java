@@ -0,0 +1,83 @@
+package grade;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * 在两次运行之间保存每个学号的查询状态，供单次运行模式使用<br>
+ * 保存比较成绩变化的基准（已有成绩的科目数量）、上次查询与上次变化的时间、当前使用的cookie，
+ * 以及最近一次的成绩单，使增量查询的接口在下次运行时仍然只需查询第一页；
+ * 以 接口名/学号 为键存为一个JSON文件；配置文件中已删除的学号在下次保存时一并移除<br>
+ * <br>
+ * 配置项 stateFile，默认为 state.json
+ */
+public final class StateStore {
+    private static final String DEFAULT_FILE = "state.json";
+    private final Path file;
+
+    private StateStore(Path file) {
+        this.file = file;
+    }
+
+    public static StateStore fromConfig(JSONObject config) {
+        return new StateStore(Path.of(config.optString("stateFile", DEFAULT_FILE)));
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * 把上次保存的状态恢复到学号上，文件不存在时什么也不做
+     *
+     * @return 恢复了状态的学号数量
+     */
+    public int load(List<Student> students) throws IOException {
+        if (!Files.exists(file)) return 0;
+        JSONObject json = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+        int restored = 0;
+        for (Student student : students) {
+            JSONObject state = json.optJSONObject(key(student));
+            if (state == null) continue;
+            student.restoreItemCount(state.optInt("items", -1));
+            student.setFetchedAt(state.optLong("fetchedAt", 0));
+            student.setLastChangedAt(state.optLong("lastChangedAt", 0));
+            student.setCookieIndex(state.optInt("cookieIndex", 0));
+            JSONObject transcript = state.optJSONObject("transcript");
+            if (transcript != null) student.setTranscript(Transcript.fromJson(transcript));
+            restored++;
+        }
+        return restored;
+    }
+
+    /**
+     * 先写临时文件再替换，避免写入中途退出损坏状态文件
+     */
+    public void save(List<Student> students) throws IOException {
+        JSONObject json = new JSONObject();
+        for (Student student : students) {
+            Transcript transcript = student.getTranscript();
+            json.put(key(student), new JSONObject()
+                    .put("items", student.getItemCount())
+                    .put("fetchedAt", student.getFetchedAt())
+                    .put("lastChangedAt", student.getLastChangedAt())
+                    .put("cookieIndex", student.getCookieIndex())
+                    .put("transcript", transcript == null ? JSONObject.NULL : transcript.toJson()));
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, json.toString(4), StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String key(Student student) {
+        return student.getEndpoint().getName() + "/" + student.getStudentID();
+    }
+}
@@ -0,0 +1,234 @@
+package grade;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个被查询的学号及其全部订阅者<br>
+ * 配置文件中的 studentID / cookie / PushTargetByUserID 按下标一一对应，每个下标是一个订阅者；
+ * 多个订阅者关注同一学号时合并为一个Student，每轮只向教务系统查询一次<br>
+ * 可选的 endpoint 数组同样按下标指定每个订阅者使用的接口名，不同接口下的相同学号视为不同学生
+ */
+public class Student {
+    private final String studentID;
+    private final Endpoint endpoint;
+    /**
+     * 订阅者序号，即配置文件数组的下标
+     */
+    private final List<Integer> subscribers = new ArrayList<>();
+    /**
+     * 各订阅者提供的cookie，查询失败时轮换使用下一个
+     */
+    private final List<String> cookies = new ArrayList<>();
+    private int cookieIndex = 0;
+
+    /**
+     * notifyNum存储已有成绩的科目数量，在有变化时推送
+     */
+    private int notifyNum;
+    private boolean firstUpdate = true;
+    /**
+     * 下次查询的时间，为null表示不再查询
+     */
+    private volatile LocalDateTime nextPoll;
+    /**
+     * 最近一次查询到的完整成绩单，还没有成绩时为null
+     */
+    private volatile Transcript transcript;
+    /**
+     * 最近一次成功查询的时间戳（毫秒），从未成功时为0
+     */
+    private volatile long fetchedAt;
+    /**
+     * 上次成绩变化的时间戳，0表示启动后还没有变化过
+     */
+    private volatile long lastChangedAt;
+    /**
+     * 查询循环和查询接口可能同时查询同一个学号，同一时间只允许一个查询<br>
+     * 流水线中一次查询跨越多个线程，因此使用信号量而不是锁
+     */
+    private final Semaphore pollPermit = new Semaphore(1);
+
+    private Student(String studentID, Endpoint endpoint) {
+        this.studentID = studentID;
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * 按学号合并配置文件中的所有条目，保持首次出现的顺序
+     */
+    public static List<Student> fromConfig(JSONObject config, Map<String, Endpoint> endpoints) {
+        JSONArray studentIDs = config.getJSONArray("studentID");
+        JSONArray cookies = config.getJSONArray("cookie");
+        JSONArray endpointNames = config.optJSONArray("endpoint");
+        Map<String, Student> students = new LinkedHashMap<>();
+        for (int i = 0; i < studentIDs.length(); i++) {
+            String id = studentIDs.getString(i).trim();
+            String endpointName = endpointNames == null ? Endpoint.DEFAULT_NAME : endpointNames.optString(i, Endpoint.DEFAULT_NAME);
+            Endpoint endpoint = endpoints.get(endpointName);
+            if (endpoint == null) {
+                throw new IllegalArgumentException("Unknown endpoint " + endpointName + " of studentID[" + i + "]");
+            }
+            Student student = students.computeIfAbsent(endpointName + "/" + id, key -> new Student(id, endpoint));
+            student.subscribers.add(i);
+            String cookie = cookies.optString(i, "");
+            if (!cookie.isBlank() && !student.cookies.contains(cookie)) {
+                student.cookies.add(cookie);
+            }
+        }
+        return new ArrayList<>(students.values());
+    }
+
+    public String getStudentID() {
+        return studentID;
+    }
+
+    public Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public List<Integer> getSubscribers() {
+        return Collections.unmodifiableList(subscribers);
+    }
+
+    /**
+     * @return 当前使用的cookie，没有可用cookie时为空字符串
+     */
+    public String getCookie() {
+        return cookies.isEmpty() ? "" : cookies.get(cookieIndex);
+    }
+
+    /**
+     * @return 当前使用的cookie在 {@link #getCookies()} 中的下标
+     */
+    public int getCookieIndex() {
+        return cookieIndex;
+    }
+
+    public List<String> getCookies() {
+        return Collections.unmodifiableList(cookies);
+    }
+
+    /**
+     * 优先使用指定的cookie，通常是启动检查时确认有效的那个
+     */
+    public void preferCookie(String cookie) {
+        int index = cookies.indexOf(cookie);
+        if (index >= 0) cookieIndex = index;
+    }
+
+    public void setCookieIndex(int cookieIndex) {
+        if (cookieIndex >= 0 && cookieIndex < cookies.size()) this.cookieIndex = cookieIndex;
+    }
+
+    /**
+     * 当前cookie查询失败，下次改用其他订阅者提供的cookie
+     */
+    public void rotateCookie() {
+        if (!cookies.isEmpty()) {
+            cookieIndex = (cookieIndex + 1) % cookies.size();
+        }
+    }
+
+    public Transcript getTranscript() {
+        return transcript;
+    }
+
+    public void setTranscript(Transcript transcript) {
+        this.transcript = transcript;
+    }
+
+    /**
+     * 开始查询，已有查询在进行时等待它结束
+     */
+    public void beginPoll() {
+        pollPermit.acquireUninterruptibly();
+    }
+
+    /**
+     * 尝试开始查询
+     *
+     * @return 已有查询在进行时返回false
+     */
+    public boolean tryBeginPoll() {
+        return pollPermit.tryAcquire();
+    }
+
+    public void endPoll() {
+        pollPermit.release();
+    }
+
+    /**
+     * 等待正在进行的查询结束，不开始新的查询
+     *
+     * @return 是否在超时前结束
+     */
+    public boolean awaitPoll(long timeoutMillis) throws InterruptedException {
+        if (!pollPermit.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) return false;
+        pollPermit.release();
+        return true;
+    }
+
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    public void setFetchedAt(long fetchedAt) {
+        this.fetchedAt = fetchedAt;
+    }
+
+    public long getLastChangedAt() {
+        return lastChangedAt;
+    }
+
+    public void setLastChangedAt(long lastChangedAt) {
+        this.lastChangedAt = lastChangedAt;
+    }
+
+    public LocalDateTime getNextPoll() {
+        return nextPoll;
+    }
+
+    public void setNextPoll(LocalDateTime nextPoll) {
+        this.nextPoll = nextPoll;
+    }
+
+    /**
+     * @return 上次记录的科目数量，还没有成功查询过时为-1
+     */
+    public int getItemCount() {
+        return firstUpdate ? -1 : notifyNum;
+    }
+
+    /**
+     * 恢复上次运行保存的科目数量，之后的查询与它比较，恢复后的第一次查询也能发现变化
+     */
+    public void restoreItemCount(int itemCount) {
+        if (itemCount < 0) return;
+        firstUpdate = false;
+        notifyNum = itemCount;
+    }
+
+    /**
+     * 记录本次查询到的科目数量
+     *
+     * @return 与上次相比是否有变化，首次查询不算变化
+     */
+    public boolean update(int itemCount) {
+        if (firstUpdate) {
+            firstUpdate = false;
+            notifyNum = itemCount;
+            return false;
+        }
+        if (itemCount != notifyNum) {
+            notifyNum = itemCount;
+            return true;
+        }
+        return false;
+    }
+}
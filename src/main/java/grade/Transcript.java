@@ -0,0 +1,139 @@
+package grade;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * 从教务系统接口返回的 items 解析出的成绩单
+ */
+public final class Transcript {
+    /**
+     * 单个科目的成绩
+     *
+     * @param score  百分制成绩
+     * @param credit 学分
+     * @param name   课程名称
+     */
+    public record ScoreItem(int score, double credit, String name) implements Comparable<ScoreItem> {
+        @Override
+        public String toString() {
+            return score + "\t" + name + "[" + credit + "]";
+        }
+
+        @Override
+        public int compareTo(ScoreItem o) {
+            //按分数排序
+            int scoreDiff = o.score - this.score;
+            if (scoreDiff != 0) {
+                return scoreDiff;
+            }
+            return (int) Math.ceil(o.credit - this.credit);
+        }
+    }
+
+    private final String studentName;
+    private final List<ScoreItem> items;
+    private final double gpa;
+    /**
+     * 每条原始记录的标识，用于增量查询时判断首页记录是否都已存在
+     */
+    private final Set<String> rowKeys;
+
+    private Transcript(String studentName, List<ScoreItem> items, double gpa, Set<String> rowKeys) {
+        this.studentName = studentName;
+        this.items = items;
+        this.gpa = gpa;
+        this.rowKeys = rowKeys;
+    }
+
+    /**
+     * @param items 接口返回的 items 数组，不能为空
+     */
+    public static Transcript parse(JSONArray items) {
+        /*从JSON中取出每个科目的成绩*/
+        double xf = 0; //学分
+        double jd = 0; //绩点
+        List<ScoreItem> scoreItemArray = new ArrayList<>(items.length());
+        Set<String> rowKeys = new HashSet<>();
+        for (int j = 0; j < items.length(); j++) {
+            JSONObject jsonObject = items.getJSONObject(j);
+            rowKeys.add(rowKey(jsonObject));
+            double credit = Double.parseDouble(jsonObject.getString("xf"));
+            scoreItemArray.add(new ScoreItem(Integer.parseInt(jsonObject.getString("bfzcj")), credit, jsonObject.getString("kcmc")));
+            xf += credit;
+            jd += credit * Double.parseDouble(jsonObject.getString("jd"));
+        }
+        Collections.sort(scoreItemArray); //排序成绩
+        return new Transcript(items.getJSONObject(0).getString("xm"), Collections.unmodifiableList(scoreItemArray), jd / xf, rowKeys);
+    }
+
+    /**
+     * @return 可以由 {@link #fromJson(JSONObject)} 恢复的JSON，用于在两次运行之间保存成绩单
+     */
+    public JSONObject toJson() {
+        JSONArray itemsJson = new JSONArray();
+        for (ScoreItem item : items) {
+            itemsJson.put(new JSONObject().put("score", item.score).put("credit", item.credit).put("name", item.name));
+        }
+        return new JSONObject().put("name", studentName).put("gpa", gpa).put("items", itemsJson).put("rowKeys", new JSONArray(rowKeys));
+    }
+
+    public static Transcript fromJson(JSONObject json) {
+        JSONArray itemsJson = json.getJSONArray("items");
+        List<ScoreItem> items = new ArrayList<>(itemsJson.length());
+        for (int j = 0; j < itemsJson.length(); j++) {
+            JSONObject item = itemsJson.getJSONObject(j);
+            items.add(new ScoreItem(item.getInt("score"), item.getDouble("credit"), item.getString("name")));
+        }
+        Set<String> rowKeys = new HashSet<>();
+        json.getJSONArray("rowKeys").forEach(key -> rowKeys.add((String) key));
+        return new Transcript(json.getString("name"), Collections.unmodifiableList(items), json.getDouble("gpa"), rowKeys);
+    }
+
+    private static String rowKey(JSONObject item) {
+        return item.optString("xnm") + "|" + item.optString("xqm") + "|" + item.optString("kcmc") + "|" +
+               item.optString("bfzcj") + "|" + item.optString("xf") + "|" + item.optString("jd");
+    }
+
+    /**
+     * @param items 接口返回的部分记录
+     * @return 这些记录是否都已包含在本成绩单中，且内容没有变化
+     */
+    public boolean containsAll(JSONArray items) {
+        for (int j = 0; j < items.length(); j++) {
+            if (!rowKeys.contains(rowKey(items.getJSONObject(j)))) return false;
+        }
+        return true;
+    }
+
+    public String getStudentName() {
+        return studentName;
+    }
+
+    public List<ScoreItem> getItems() {
+        return items;
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public double getGpa() {
+        return gpa;
+    }
+
+    /**
+     * @return 用于控制台输出和推送的成绩单文本
+     */
+    public String render() {
+        StringBuilder score = new StringBuilder();
+        score.append("[").append(studentName).append("]\n"); //学生姓名
+        for (ScoreItem item : items) {
+            score.append(item).append("\n");
+        }
+        score.append("Current GPA: ").append(String.format("%.2f", gpa)).append("\n");
+        return score.toString();
+    }
+}
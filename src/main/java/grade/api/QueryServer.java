@@ -0,0 +1,266 @@
+package grade.api;
+
+import com.devccv.util.network.ConcurrencyLimiter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import grade.Endpoint;
+import grade.Poller;
+import grade.Student;
+import grade.Transcript;
+import grade.notify.Outbox;
+import grade.pipeline.PollPipeline;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * 本地成绩查询接口，直接返回查询循环缓存的成绩单<br>
+ * 缓存超过 maxAge 毫秒时才会向教务系统查询，同一学号的并发刷新合并为一次查询；
+ * 刷新经由查询流水线在接口的线程池中执行，与查询循环共用并发上限、请求间隔和自适应并发限制，
+ * 学号正在被查询循环查询时等待那次查询结束，不另外发送请求<br>
+ * <br>
+ * 配置项 api：
+ * <pre>"api": {"port": 8080, "bind": "127.0.0.1", "maxAge": 60000, "refreshTimeout": 15000}</pre>
+ * GET /students 列出所有学号；GET /students/{studentID}[?endpoint=name] 返回成绩单与缓存时间信息；
+ * GET /metrics 返回查询统计与每个接口当前的并发上限
+ */
+public class QueryServer implements AutoCloseable {
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final long DEFAULT_MAX_AGE = 60000;
+    private static final long DEFAULT_REFRESH_TIMEOUT = 15000;
+    private final List<Student> students;
+    private final Poller poller;
+    private final PollPipeline pipeline;
+    private final long maxAge;
+    private final long refreshTimeout;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    /**
+     * 正在进行的刷新，同一学号的并发请求共用一个
+     */
+    private final Map<Student, CompletableFuture<Void>> refreshing = new ConcurrentHashMap<>();
+    /**
+     * 附加的统计信息，键为 GET /metrics 返回的字段名
+     */
+    private final Map<String, Supplier<Object>> metrics = new ConcurrentHashMap<>();
+
+    private QueryServer(List<Student> students, Poller poller, PollPipeline pipeline, JSONObject config) throws IOException {
+        this.students = students;
+        this.poller = poller;
+        this.pipeline = pipeline;
+        this.maxAge = config.optLong("maxAge", DEFAULT_MAX_AGE);
+        this.refreshTimeout = config.optLong("refreshTimeout", DEFAULT_REFRESH_TIMEOUT);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "query-api");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(config.optString("bind", "127.0.0.1"), config.getInt("port")), 0);
+        server.setExecutor(executor);
+        server.createContext("/students", this::handle);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    /**
+     * 通过 GET /metrics 公开附加的统计信息
+     *
+     * @param name    返回的字段名
+     * @param metrics 每次请求时调用，返回JSONObject或JSONArray
+     */
+    public void putMetrics(String name, Supplier<Object> metrics) {
+        this.metrics.put(name, metrics);
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JSONObject body = new JSONObject()
+                    .put("fetches", poller.getFetchCount())
+                    .put("notifications", poller.getNotifyCount())
+                    .put("receivedChars", poller.getFetchChars());
+            Outbox outbox = poller.getOutbox();
+            if (outbox != null) {
+                body.put("outbox", new JSONObject()
+                        .put("pending", outbox.pendingCount())
+                        .put("delivered", outbox.deliveredCount())
+                        .put("retries", outbox.retryCount()));
+            }
+            JSONObject endpoints = new JSONObject();
+            for (Student student : students) {
+                Endpoint endpoint = student.getEndpoint();
+                if (endpoints.has(endpoint.getName())) continue;
+                JSONObject endpointMetrics = new JSONObject().put("concurrencyLimit", endpoint.getConcurrencyLimit());
+                ConcurrencyLimiter limiter = endpoint.getLimiter();
+                if (limiter != null) {
+                    endpointMetrics.put("inFlight", limiter.getInFlight())
+                            .put("limitDrops", limiter.getDrops())
+                            .put("baselineMillis", limiter.getBaselineMillis());
+                }
+                endpoints.put(endpoint.getName(), endpointMetrics);
+            }
+            body.put("endpoints", endpoints);
+            for (Map.Entry<String, Supplier<Object>> entry : metrics.entrySet()) {
+                body.put(entry.getKey(), entry.getValue().get());
+            }
+            respond(exchange, 200, body, 0);
+        }
+    }
+
+    /**
+     * 启动查询接口
+     *
+     * @param config 完整的配置文件，未配置 api 时不启动
+     * @return 已启动的查询接口，未配置时返回null
+     */
+    public static QueryServer start(JSONObject config, List<Student> students, Poller poller, PollPipeline pipeline) throws IOException {
+        JSONObject apiConfig = config.optJSONObject("api");
+        if (apiConfig == null || apiConfig.optInt("port", 0) <= 0) return null;
+        QueryServer queryServer = new QueryServer(students, poller, pipeline, apiConfig);
+        queryServer.server.start();
+        System.out.println("Query API listening on " + queryServer.server.getAddress());
+        return queryServer;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                respond(exchange, 405, new JSONObject().put("error", "method not allowed"), 0);
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/students") || path.equals("/students/")) {
+                JSONArray list = new JSONArray();
+                for (Student student : students) {
+                    list.put(describe(student, false));
+                }
+                respond(exchange, 200, new JSONObject().put("students", list), 0);
+                return;
+            }
+
+            if (!path.startsWith("/students/")) {
+                respond(exchange, 404, new JSONObject().put("error", "not found"), 0);
+                return;
+            }
+            String studentID = path.substring("/students/".length());
+            String endpoint = queryParameter(exchange, "endpoint");
+            Student student = find(studentID, endpoint);
+            if (student == null) {
+                respond(exchange, 404, new JSONObject().put("error", "unknown student"), 0);
+                return;
+            }
+            if (age(student) > maxAge) {
+                refresh(student);
+            }
+            respond(exchange, 200, describe(student, true), Math.max(0, (maxAge - age(student)) / 1000));
+        }
+    }
+
+    /**
+     * 刷新学号的成绩单，已有刷新在进行时等待它完成
+     */
+    private void refresh(Student student) {
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        CompletableFuture<Void> future = refreshing.putIfAbsent(student, created);
+        if (future == null) {
+            future = created;
+            created.whenComplete((v, e) -> refreshing.remove(student, created));
+            String time = "[" + DATE_TIME_FORMATTER.format(LocalDateTime.now()) + "]";
+            if (!pipeline.submit(student, time, () -> created.complete(null))) {
+                //查询循环正在查询该学号，等待那次查询结束
+                executor.execute(() -> {
+                    try {
+                        student.awaitPoll(refreshTimeout);
+                    } catch (InterruptedException ignored) {
+                    }
+                    created.complete(null);
+                });
+            }
+        }
+        try {
+            future.get(refreshTimeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            //刷新失败时返回已有缓存，由stale字段标识
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private JSONObject describe(Student student, boolean withItems) {
+        long fetchedAt = student.getFetchedAt();
+        long age = age(student);
+        JSONObject json = new JSONObject()
+                .put("studentID", student.getStudentID())
+                .put("endpoint", student.getEndpoint().getName())
+                .put("fetchedAt", fetchedAt == 0 ? JSONObject.NULL : fetchedAt)
+                .put("ageMillis", fetchedAt == 0 ? JSONObject.NULL : age)
+                .put("maxAge", maxAge)
+                .put("stale", age > maxAge)
+                .put("lastChangedAt", student.getLastChangedAt() == 0 ? JSONObject.NULL : student.getLastChangedAt())
+                .put("nextPoll", student.getNextPoll() == null ? JSONObject.NULL : DATE_TIME_FORMATTER.format(student.getNextPoll()));
+        Transcript transcript = student.getTranscript();
+        if (transcript == null) {
+            return json.put("count", 0);
+        }
+        json.put("name", transcript.getStudentName())
+                .put("count", transcript.size())
+                .put("gpa", transcript.getGpa());
+        if (withItems) {
+            JSONArray items = new JSONArray();
+            for (Transcript.ScoreItem item : transcript.getItems()) {
+                items.put(new JSONObject().put("name", item.name()).put("score", item.score()).put("credit", item.credit()));
+            }
+            json.put("items", items);
+        }
+        return json;
+    }
+
+    private static long age(Student student) {
+        long fetchedAt = student.getFetchedAt();
+        return fetchedAt == 0 ? Long.MAX_VALUE : System.currentTimeMillis() - fetchedAt;
+    }
+
+    private Student find(String studentID, String endpoint) {
+        for (Student student : students) {
+            if (student.getStudentID().equals(studentID)
+                && (endpoint == null || student.getEndpoint().getName().equals(endpoint))) {
+                return student;
+            }
+        }
+        return null;
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getQuery();
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) return pair.substring(eq + 1);
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int code, JSONObject body, long maxAgeSeconds) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+        exchange.getResponseHeaders().set("Cache-Control", "max-age=" + maxAgeSeconds);
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,18 @@
+package grade.notify;
+
+/**
+ * 成绩更新事件
+ *
+ * @param subscriber 订阅者序号，即配置文件中 studentID / cookie / PushTargetByUserID 数组的下标
+ * @param studentID  学号
+ * @param time       检测到更新的时间，形如 [yyyy-MM-dd HH:mm:ss]
+ * @param content    渲染好的成绩单文本
+ */
+public record GradeEvent(int subscriber, String studentID, String time, String content) {
+    /**
+     * 推送使用的完整消息文本
+     */
+    public String message() {
+        return time + "\n" + content;
+    }
+}
@@ -0,0 +1,56 @@
+package grade.notify;
+
+import org.json.JSONObject;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 成绩更新通知渠道<br>
+ * 实现类通过 {@link java.util.ServiceLoader} 发现，需要提供公共无参构造方法，
+ * 并登记在 META-INF/services/grade.notify.Notifier 中<br>
+ * <br>
+ * 同一渠道的 {@link #send(GradeEvent)} 与 {@link #sendAll(List)} 总是在该渠道独占的线程中串行调用，实现类无需考虑线程安全
+ */
+public interface Notifier {
+    /**
+     * @return 渠道名称，用于日志输出
+     */
+    String name();
+
+    /**
+     * 从配置文件中读取本渠道的配置
+     *
+     * @param config 完整的配置文件
+     * @return 本渠道是否已配置，未配置的渠道不会收到任何事件
+     */
+    boolean configure(JSONObject config);
+
+    /**
+     * 发送一条成绩更新通知
+     *
+     * @param event 成绩更新事件
+     * @return 是否发送成功
+     */
+    boolean send(GradeEvent event) throws Exception;
+
+    /**
+     * 发送一批成绩更新通知，默认逐条调用 {@link #send(GradeEvent)}；能够合并发送的渠道可以覆盖此方法
+     *
+     * @param events 待发送的事件
+     * @return 发送失败的事件，全部成功时为空
+     */
+    default Set<GradeEvent> sendAll(List<GradeEvent> events) {
+        Set<GradeEvent> failed = new LinkedHashSet<>();
+        for (GradeEvent event : events) {
+            try {
+                if (!send(event)) failed.add(event);
+            } catch (Exception e) {
+                System.out.println(name() + " push failed: " + e);
+                failed.add(event);
+            }
+        }
+        return failed;
+    }
+}
@@ -0,0 +1,134 @@
+package grade.notify;
+
+import org.json.JSONObject;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 通知分发器<br>
+ * 启动时通过 {@link ServiceLoader} 加载所有已配置的 {@link Notifier}，
+ * 之后每个事件并行发送到全部渠道，一批事件在每个渠道中合并为一次 {@link Notifier#sendAll(List)}<br>
+ * <br>
+ * 每个渠道独占一个发送线程：某个渠道卡住只会阻塞它自己的后续发送，不会占用其他渠道的线程；
+ * 单次分发最多等待 notifyTimeout 毫秒，超时的渠道视为发送失败并被中断
+ */
+public class NotifyDispatcher implements AutoCloseable {
+    private static final long DEFAULT_TIMEOUT = 10000;
+    private final Map<Notifier, ExecutorService> channels = new LinkedHashMap<>();
+    private final long timeoutMillis;
+
+    private NotifyDispatcher(List<Notifier> notifiers, long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        for (Notifier notifier : notifiers) {
+            channels.put(notifier, Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "notify-" + notifier.name());
+                thread.setDaemon(true);
+                return thread;
+            }));
+        }
+    }
+
+    /**
+     * 加载并配置所有通知渠道，未配置的渠道会被忽略
+     *
+     * @param config 完整的配置文件，notifyTimeout 为单次分发的超时时间（毫秒）
+     */
+    public static NotifyDispatcher load(JSONObject config) {
+        List<Notifier> notifiers = new ArrayList<>();
+        for (Notifier notifier : ServiceLoader.load(Notifier.class)) {
+            try {
+                if (notifier.configure(config)) {
+                    notifiers.add(notifier);
+                }
+            } catch (Exception e) {
+                System.out.println("Notifier " + notifier.name() + " configure failed: " + e.getMessage());
+            }
+        }
+        return new NotifyDispatcher(notifiers, config.optLong("notifyTimeout", DEFAULT_TIMEOUT));
+    }
+
+    /**
+     * @return 已启用的渠道名称
+     */
+    public List<String> channelNames() {
+        List<String> names = new ArrayList<>();
+        for (Notifier notifier : channels.keySet()) {
+            names.add(notifier.name());
+        }
+        return names;
+    }
+
+    /**
+     * 将事件并行发送到所有渠道，等待全部完成或超时
+     *
+     * @param event 成绩更新事件
+     * @return 发送失败（包括超时）的渠道名称，全部成功时为空
+     */
+    public Set<String> dispatch(GradeEvent event) {
+        return dispatch(event, null);
+    }
+
+    /**
+     * 将事件并行发送到指定渠道，等待全部完成或超时
+     *
+     * @param event    成绩更新事件
+     * @param channels 要发送的渠道名称，为null时发送到全部渠道
+     * @return 发送失败（包括超时）的渠道名称，全部成功时为空
+     */
+    public Set<String> dispatch(GradeEvent event, Set<String> channels) {
+        Map<GradeEvent, Set<String>> single = new HashMap<>();
+        single.put(event, channels);
+        return dispatchAll(single).getOrDefault(event, Set.of());
+    }
+
+    /**
+     * 将一批事件并行发送到各自的渠道，等待全部完成或超时<br>
+     * 每个渠道通过一次 {@link Notifier#sendAll(List)} 发送分给它的所有事件，支持合并发送的渠道可以减少请求次数
+     *
+     * @param channelsByEvent 事件到要发送的渠道名称，渠道为null时发送到全部渠道
+     * @return 有渠道发送失败（包括超时）的事件与这些渠道的名称，全部成功时为空
+     */
+    public Map<GradeEvent, Set<String>> dispatchAll(Map<GradeEvent, Set<String>> channelsByEvent) {
+        Map<Notifier, List<GradeEvent>> eventsByChannel = new LinkedHashMap<>();
+        for (Map.Entry<GradeEvent, Set<String>> entry : channelsByEvent.entrySet()) {
+            for (Notifier notifier : this.channels.keySet()) {
+                if (entry.getValue() != null && !entry.getValue().contains(notifier.name())) continue;
+                eventsByChannel.computeIfAbsent(notifier, k -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+        Map<Notifier, Future<Set<GradeEvent>>> futures = new LinkedHashMap<>();
+        eventsByChannel.forEach((notifier, events) ->
+                futures.put(notifier, this.channels.get(notifier).submit(() -> notifier.sendAll(events))));
+
+        Map<GradeEvent, Set<String>> failed = new LinkedHashMap<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Map.Entry<Notifier, Future<Set<GradeEvent>>> entry : futures.entrySet()) {
+            String name = entry.getKey().name();
+            Future<Set<GradeEvent>> future = entry.getValue();
+            //取不到结果时，分给该渠道的事件全部视为失败
+            Collection<GradeEvent> failedEvents = eventsByChannel.get(entry.getKey());
+            try {
+                failedEvents = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                System.out.println(name + " push timeout");
+            } catch (ExecutionException e) {
+                System.out.println(name + " push failed: " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (GradeEvent event : failedEvents) {
+                failed.computeIfAbsent(event, k -> new LinkedHashSet<>()).add(name);
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public void close() {
+        for (ExecutorService executor : channels.values()) {
+            executor.shutdownNow();
+        }
+    }
+}
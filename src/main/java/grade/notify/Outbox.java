@@ -0,0 +1,477 @@
+package grade.notify;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 持久化的通知发件箱，保证每个成绩更新事件至少送达每个渠道一次<br>
+ * <br>
+ * 事件先追加到本地日志再异步投递：写日志由单独的线程完成，同一批次的多条记录只fsync一次（组提交）；
+ * 投递失败的渠道按指数退避重试，某个渠道确认成功后才记录完成，所有渠道都完成后事件才从发件箱移除；
+ * 重启后从日志恢复未完成的事件。事件ID由订阅者、学号、检测时间和成绩单内容计算，同一事件重复提交时只投递一次<br>
+ * <br>
+ * 提交事件时等待它写入磁盘（fsync）后才返回，这是有意的取舍：返回后即使进程崩溃事件也不会丢失，
+ * 代价是推送阶段每次提交都要等一次磁盘同步；并发提交的事件共用一次同步，只有成绩变化时才会提交<br>
+ * <br>
+ * 配置了 outbox 时才启用，未配置时直接同步推送、不重试。各项均可省略，file 的相对路径相对于工作目录：
+ * <pre>"outbox": {"file": "outbox.log", "retryBase": 5000, "retryMax": 600000, "expireAfter": 86400000}</pre>
+ */
+public class Outbox implements AutoCloseable {
+    private static final String DEFAULT_FILE = "outbox.log";
+    private static final long DEFAULT_RETRY_BASE = 5000;
+    private static final long DEFAULT_RETRY_MAX = 10 * 60 * 1000L;
+    private static final long DEFAULT_EXPIRE_AFTER = 24 * 60 * 60 * 1000L;
+    /**
+     * 记住最近投递完成的事件ID数量，用于去重
+     */
+    private static final int RECENT_CAPACITY = 1024;
+    /**
+     * 日志中的完成记录超过该数量时压缩日志
+     */
+    private static final int COMPACT_THRESHOLD = 1000;
+    private final Path file;
+    private final NotifyDispatcher dispatcher;
+    private final long retryBase;
+    private final long retryMax;
+    private final long expireAfter;
+    private final Map<String, Entry> pending = new ConcurrentHashMap<>();
+    private final Set<String> recent = Collections.synchronizedSet(Collections.newSetFromMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENT_CAPACITY;
+        }
+    }));
+    private final BlockingQueue<Write> writes = new LinkedBlockingQueue<>();
+    private final Object signal = new Object();
+    private boolean wakeUpPending = false;
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final Thread writer;
+    private final Thread deliverer;
+    private FileChannel channel;
+    private int recordsSinceCompact = 0;
+    private volatile boolean closed = false;
+
+    private static final class Entry {
+        final String id;
+        final GradeEvent event;
+        final long createdAt;
+        /**
+         * 尚未确认送达的渠道
+         */
+        final Set<String> channels;
+        volatile boolean durable;
+        int attempts;
+        long nextAttempt;
+
+        Entry(String id, GradeEvent event, long createdAt, Set<String> channels) {
+            this.id = id;
+            this.event = event;
+            this.createdAt = createdAt;
+            this.channels = ConcurrentHashMap.newKeySet();
+            this.channels.addAll(channels);
+        }
+    }
+
+    private record Write(String line, CompletableFuture<Void> done) {
+    }
+
+    private Outbox(Path file, NotifyDispatcher dispatcher, JSONObject config) throws IOException {
+        this.file = file;
+        this.dispatcher = dispatcher;
+        this.retryBase = config.optLong("retryBase", DEFAULT_RETRY_BASE);
+        this.retryMax = config.optLong("retryMax", DEFAULT_RETRY_MAX);
+        this.expireAfter = config.optLong("expireAfter", DEFAULT_EXPIRE_AFTER);
+        recover();
+        compact();
+        writer = new Thread(this::writeLoop, "outbox-writer");
+        writer.setDaemon(true);
+        deliverer = new Thread(this::deliverLoop, "outbox-delivery");
+        deliverer.setDaemon(true);
+    }
+
+    /**
+     * 打开发件箱并开始投递日志中未完成的事件
+     *
+     * @param config 完整的配置文件
+     * @return 发件箱，未配置 outbox 时返回null
+     */
+    public static Outbox open(JSONObject config, NotifyDispatcher dispatcher) throws IOException {
+        JSONObject outboxConfig = config.optJSONObject("outbox");
+        if (outboxConfig == null) {
+            if (!config.optBoolean("outbox", false)) return null;
+            outboxConfig = new JSONObject();
+        }
+        Outbox outbox = new Outbox(Path.of(outboxConfig.optString("file", DEFAULT_FILE)), dispatcher, outboxConfig);
+        outbox.writer.start();
+        outbox.deliverer.start();
+        if (!outbox.pending.isEmpty()) {
+            System.out.println("Outbox: " + outbox.pending.size() + " pending notifications recovered");
+        }
+        return outbox;
+    }
+
+    /**
+     * {@link #submit(GradeEvent)} 的结果
+     */
+    public enum SubmitResult {
+        /**
+         * 已写入发件箱，等待投递
+         */
+        QUEUED,
+        /**
+         * 同一事件已在发件箱中或刚刚投递完成
+         */
+        DUPLICATE,
+        /**
+         * 没有启用任何通知渠道，事件无处投递
+         */
+        NO_CHANNELS
+    }
+
+    /**
+     * 将事件写入发件箱，写入磁盘后返回，随后异步投递
+     */
+    public SubmitResult submit(GradeEvent event) {
+        if (dispatcher.channelNames().isEmpty()) return SubmitResult.NO_CHANNELS;
+        String id = eventId(event);
+        if (recent.contains(id)) return SubmitResult.DUPLICATE;
+        Entry entry = new Entry(id, event, System.currentTimeMillis(), new LinkedHashSet<>(dispatcher.channelNames()));
+        if (pending.putIfAbsent(id, entry) != null) return SubmitResult.DUPLICATE;
+        JSONObject record = new JSONObject().put("op", "add").put("id", id).put("createdAt", entry.createdAt)
+                .put("channels", new JSONArray(entry.channels)).put("event", toJson(event));
+        try {
+            append(record).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.out.println("Outbox write failed: " + e.getCause());
+        }
+        //即使写盘失败也尽力投递
+        entry.durable = true;
+        wakeUp();
+        return SubmitResult.QUEUED;
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * 等待所有到期的事件都至少投递过一次，用于单次运行模式退出前
+     *
+     * @return 超时前是否已没有到期的事件；仍在退避中的事件留在日志里，下次运行时继续投递
+     */
+    public boolean awaitAttempted(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (signal) {
+            while (true) {
+                long now = System.currentTimeMillis();
+                boolean due = false;
+                for (Entry entry : pending.values()) {
+                    //投递中的事件在得到结果前仍算到期
+                    if (entry.nextAttempt <= now) {
+                        due = true;
+                        break;
+                    }
+                }
+                if (!due) return true;
+                if (now >= deadline) return false;
+                signal.wait(deadline - now);
+            }
+        }
+    }
+
+    public long deliveredCount() {
+        return delivered.get();
+    }
+
+    public long retryCount() {
+        return retries.get();
+    }
+
+    //region 投递
+
+    private void deliverLoop() {
+        while (!closed) {
+            synchronized (signal) {
+                wakeUpPending = false;
+            }
+            long now = System.currentTimeMillis();
+            long nextWake = Long.MAX_VALUE;
+            List<Entry> due = new ArrayList<>();
+            for (Entry entry : pending.values()) {
+                if (!entry.durable) continue;
+                if (entry.nextAttempt > now) {
+                    nextWake = Math.min(nextWake, entry.nextAttempt);
+                    continue;
+                }
+                due.add(entry);
+            }
+            if (!due.isEmpty()) {
+                deliver(due);
+                for (Entry entry : due) {
+                    if (pending.containsKey(entry.id)) nextWake = Math.min(nextWake, entry.nextAttempt);
+                }
+                //唤醒等待本轮投递结果的 awaitAttempted
+                synchronized (signal) {
+                    signal.notifyAll();
+                }
+            }
+            synchronized (signal) {
+                long wait = nextWake == Long.MAX_VALUE ? 0 : nextWake - System.currentTimeMillis();
+                //扫描期间有新事件时不等待
+                if (closed || wakeUpPending || (wait <= 0 && nextWake != Long.MAX_VALUE)) continue;
+                try {
+                    signal.wait(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 一次分发所有到期的事件，渠道可以把内容相同的通知合并发送
+     */
+    private void deliver(List<Entry> due) {
+        //只重试尚未成功的渠道
+        Map<GradeEvent, Set<String>> channelsByEvent = new LinkedHashMap<>();
+        for (Entry entry : due) {
+            channelsByEvent.put(entry.event, new LinkedHashSet<>(entry.channels));
+        }
+        Map<GradeEvent, Set<String>> failed = dispatcher.dispatchAll(channelsByEvent);
+        for (Entry entry : due) {
+            settle(entry, failed.getOrDefault(entry.event, Set.of()));
+        }
+    }
+
+    private void settle(Entry entry, Set<String> failed) {
+        for (String channel : new ArrayList<>(entry.channels)) {
+            if (failed.contains(channel)) continue;
+            entry.channels.remove(channel);
+            append(new JSONObject().put("op", "done").put("id", entry.id).put("channel", channel));
+        }
+        if (entry.channels.isEmpty()) {
+            pending.remove(entry.id);
+            recent.add(entry.id);
+            delivered.incrementAndGet();
+            return;
+        }
+        if (System.currentTimeMillis() - entry.createdAt > expireAfter) {
+            System.out.println("Outbox: giving up notification " + entry.id + " for " + entry.channels);
+            pending.remove(entry.id);
+            append(new JSONObject().put("op", "drop").put("id", entry.id));
+            return;
+        }
+        entry.attempts++;
+        retries.incrementAndGet();
+        long backoff = Math.min(retryMax, retryBase << Math.min(entry.attempts - 1, 20));
+        //加入随机抖动，避免多个事件同时重试
+        entry.nextAttempt = System.currentTimeMillis() + backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        System.out.println("Outbox: " + entry.channels + " failed, retry #" + entry.attempts + " in " + backoff / 1000 + "s");
+    }
+
+    private void wakeUp() {
+        synchronized (signal) {
+            wakeUpPending = true;
+            signal.notifyAll();
+        }
+    }
+    //endregion
+
+    //region 日志
+
+    private CompletableFuture<Void> append(JSONObject record) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        writes.add(new Write(record.toString(), done));
+        return done;
+    }
+
+    /**
+     * 组提交：取出队列中所有待写记录，一次写入并只fsync一次
+     */
+    private void writeLoop() {
+        List<Write> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(writes.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            writes.drainTo(batch);
+            StringBuilder lines = new StringBuilder();
+            for (Write write : batch) {
+                if (write.line != null) lines.append(write.line).append('\n');
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                batch.forEach(write -> write.done.complete(null));
+            } catch (IOException e) {
+                batch.forEach(write -> write.done.completeExceptionally(e));
+            }
+            recordsSinceCompact += batch.size();
+            if (recordsSinceCompact > COMPACT_THRESHOLD) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    //压缩失败时继续写原来的日志，再写入 COMPACT_THRESHOLD 条记录后重试
+                    System.out.println("Outbox: compact " + file + " failed: " + e.getMessage());
+                    recordsSinceCompact = 0;
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * 从日志恢复未完成的事件
+     */
+    private void recover() throws IOException {
+        if (!Files.exists(file)) return;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) continue;
+            JSONObject record;
+            try {
+                record = new JSONObject(line);
+            } catch (Exception e) {
+                //最后一行可能没有写完整
+                continue;
+            }
+            String id = record.getString("id");
+            switch (record.getString("op")) {
+                case "add" -> {
+                    Set<String> channels = new LinkedHashSet<>();
+                    record.getJSONArray("channels").forEach(channel -> channels.add((String) channel));
+                    //只投递到仍然配置着的渠道
+                    channels.retainAll(dispatcher.channelNames());
+                    if (!recent.contains(id) && !channels.isEmpty()) {
+                        Entry entry = new Entry(id, fromJson(record.getJSONObject("event")), record.getLong("createdAt"), channels);
+                        entry.durable = true;
+                        pending.putIfAbsent(id, entry);
+                    }
+                }
+                case "done" -> {
+                    Entry entry = pending.get(id);
+                    if (entry != null) {
+                        entry.channels.remove(record.getString("channel"));
+                        if (entry.channels.isEmpty()) {
+                            pending.remove(id);
+                            recent.add(id);
+                        }
+                    }
+                }
+                case "drop" -> pending.remove(id);
+                case "seen" -> recent.add(id);
+                default -> {
+                }
+            }
+        }
+    }
+
+    /**
+     * 用当前状态重写日志：未完成的事件和最近完成的事件ID<br>
+     * 新日志写入并替换成功后才切换到新文件继续追加，任何一步失败时删除临时文件，继续写原来的日志
+     */
+    private void compact() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        List<String> recentIds;
+        synchronized (recent) {
+            recentIds = new ArrayList<>(recent);
+        }
+        for (String id : recentIds) {
+            lines.append(new JSONObject().put("op", "seen").put("id", id)).append('\n');
+        }
+        for (Entry entry : pending.values()) {
+            lines.append(new JSONObject().put("op", "add").put("id", entry.id).put("createdAt", entry.createdAt)
+                    .put("channels", new JSONArray(entry.channels)).put("event", toJson(entry.event))).append('\n');
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        //改名后打开的通道仍指向同一个文件，之后直接在末尾追加
+        FileChannel compacted = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                compacted.write(buffer);
+            }
+            compacted.force(true);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            compacted.close();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        FileChannel previous = channel;
+        channel = compacted;
+        recordsSinceCompact = 0;
+        if (previous != null) {
+            try {
+                previous.close();
+            } catch (IOException e) {
+                //旧日志已被替换，关闭失败不影响之后的写入
+            }
+        }
+    }
+    //endregion
+
+    /**
+     * 事件ID包含检测到更新的时间，只有同一次检测的重复提交才视为同一事件；
+     * 成绩撤回后重新发布时成绩单内容与之前相同，但属于新的更新，仍然需要通知
+     */
+    static String eventId(GradeEvent event) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((event.subscriber() + "\n" + event.studentID() + "\n" + event.time() + "\n" + event.content())
+                    .getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static JSONObject toJson(GradeEvent event) {
+        return new JSONObject().put("subscriber", event.subscriber()).put("studentID", event.studentID())
+                .put("time", event.time()).put("content", event.content());
+    }
+
+    private static GradeEvent fromJson(JSONObject json) {
+        return new GradeEvent(json.getInt("subscriber"), json.getString("studentID"), json.getString("time"), json.getString("content"));
+    }
+
+    /**
+     * 停止投递，已写入日志的事件在下次启动时继续投递
+     */
+    @Override
+    public void close() {
+        closed = true;
+        deliverer.interrupt();
+        //等待已提交的记录写完
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+        writes.add(new Write(null, flushed));
+        try {
+            flushed.get(5, TimeUnit.SECONDS);
+        } catch (Exception ignored) {
+        }
+        writer.interrupt();
+    }
+}
@@ -0,0 +1,35 @@
+package grade.notify;
+
+import com.devccv.util.network.RequestResult;
+import com.devccv.util.network.SimpleHttps;
+import org.json.JSONObject;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 通过Telegram Bot推送，配置项 tgBotUrl
+ */
+public class TelegramNotifier implements Notifier {
+    private String tgBotUrl;
+
+    @Override
+    public String name() {
+        return "Telegram";
+    }
+
+    @Override
+    public boolean configure(JSONObject config) {
+        tgBotUrl = config.optString("tgBotUrl", "");
+        return !tgBotUrl.isBlank();
+    }
+
+    @Override
+    public boolean send(GradeEvent event) {
+        RequestResult result = SimpleHttps.POST(tgBotUrl + "&text=" + URLEncoder.encode(event.message(), StandardCharsets.UTF_8));
+        if (!result.isSucceed()) {
+            System.out.println("Telegram push failed: " + result.getErrorMsg());
+        }
+        return result.isSucceed();
+    }
+}
@@ -0,0 +1,79 @@
+package grade.notify;
+
+import com.devccv.util.push.MediaCache;
+import com.devccv.util.push.WeChatBroadcast;
+import com.devccv.util.push.WeChatPush;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * 通过企业微信应用消息推送，配置项 WeChatPush<br>
+ * 推送目标为 PushTargetByUserID 中与订阅者序号对应的成员；可选的 mediaCacheFile 为临时素材缓存文件
+ */
+public class WeChatNotifier implements Notifier {
+    private WeChatPush weChatPush;
+    private JSONArray pushTargetByUserID;
+
+    @Override
+    public String name() {
+        return "WeChat";
+    }
+
+    @Override
+    public boolean configure(JSONObject config) {
+        try {
+            JSONObject weChatPushJson = config.getJSONObject("WeChatPush");
+            JSONObject wxPushConfig = weChatPushJson.getJSONObject("config");
+            weChatPush = new WeChatPush(wxPushConfig.getString("corpId"), wxPushConfig.getInt("agentID"), wxPushConfig.getString("corpSecret"));
+            pushTargetByUserID = weChatPushJson.getJSONArray("PushTargetByUserID");
+            //上传过的素材在有效期内复用media_id，重启后继续有效
+            String mediaCacheFile = weChatPushJson.optString("mediaCacheFile", "");
+            if (!mediaCacheFile.isBlank()) {
+                weChatPush.setMediaCache(new MediaCache(Path.of(mediaCacheFile)));
+            }
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean send(GradeEvent event) {
+        String userID = pushTargetByUserID.optString(event.subscriber(), "");
+        if (userID.isBlank()) {
+            //该订阅者没有配置微信推送目标
+            return true;
+        }
+        weChatPush.setPushTargetByUserID(List.of(userID));
+        if (!weChatPush.pushTextMessage(event.message())) {
+            System.out.println("WeChat push failed: " + weChatPush.getErrMsg());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 内容相同的通知（如同一学号的多个订阅者）合并为一次推送，无效成员只让对应的事件失败
+     */
+    @Override
+    public Set<GradeEvent> sendAll(List<GradeEvent> events) {
+        WeChatBroadcast broadcast = weChatPush.newBroadcast();
+        Map<List<String>, List<GradeEvent>> byTarget = new HashMap<>();
+        for (GradeEvent event : events) {
+            String userID = pushTargetByUserID.optString(event.subscriber(), "");
+            if (userID.isBlank()) continue;
+            broadcast.addTextMessage(WeChatBroadcast.Recipient.user(userID), event.message());
+            byTarget.computeIfAbsent(List.of(userID, event.message()), k -> new ArrayList<>()).add(event);
+        }
+        Set<GradeEvent> failed = new LinkedHashSet<>();
+        if (byTarget.isEmpty()) return failed;
+        for (WeChatBroadcast.Failure failure : broadcast.send()) {
+            System.out.println("WeChat push to " + failure.recipient().id() + " failed: " + failure.reason());
+            failed.addAll(byTarget.getOrDefault(List.of(failure.recipient().id(), failure.payload().optString("content")), List.of()));
+        }
+        return failed;
+    }
+}
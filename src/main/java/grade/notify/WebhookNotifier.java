@@ -0,0 +1,66 @@
+package grade.notify;
+
+import com.devccv.util.network.SimpleHttps;
+import org.json.JSONObject;
+
+import javax.net.ssl.HttpsURLConnection;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 以JSON格式POST到自定义Webhook，配置项 webhookUrl<br>
+ * 一般用于对接本地的其他服务，因此同时支持http和https；https与查询请求使用同一个SSLContext，不校验证书，可以使用自签名证书<br>
+ * 不经过SimpleHttps，无法记录与回放：离线回放时不发出请求，直接视为投递成功
+ * <pre>{"studentID": "...", "subscriber": 0, "time": "...", "content": "..."}</pre>
+ */
+public class WebhookNotifier implements Notifier {
+    private static final int TIMEOUT = 5000;
+    private String webhookUrl;
+
+    @Override
+    public String name() {
+        return "Webhook";
+    }
+
+    @Override
+    public boolean configure(JSONObject config) {
+        webhookUrl = config.optString("webhookUrl", "");
+        return !webhookUrl.isBlank();
+    }
+
+    @Override
+    public boolean send(GradeEvent event) throws IOException {
+        if (SimpleHttps.isReplaying()) return true;
+        byte[] body = new JSONObject()
+                .put("studentID", event.studentID())
+                .put("subscriber", event.subscriber())
+                .put("time", event.time())
+                .put("content", event.content())
+                .toString().getBytes(StandardCharsets.UTF_8);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(webhookUrl).openConnection();
+        if (connection instanceof HttpsURLConnection httpsURLConnection) SimpleHttps.applySSLContext(httpsURLConnection);
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(body);
+        }
+        int code = connection.getResponseCode();
+        //读完响应以便复用连接
+        try (InputStream inputStream = code < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (inputStream != null) inputStream.readAllBytes();
+        }
+        if (code / 100 != 2) {
+            System.out.println("Webhook push failed: HTTP " + code);
+            return false;
+        }
+        return true;
+    }
+}
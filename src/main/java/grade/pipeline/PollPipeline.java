@@ -0,0 +1,171 @@
+package grade.pipeline;
+
+import grade.Endpoint;
+import grade.PollJob;
+import grade.Poller;
+import grade.Student;
+import org.json.JSONObject;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * 分阶段查询流水线：查询 → 解析 → 比较 → 渲染 → 推送<br>
+ * 各阶段之间以有界的 {@link java.util.concurrent.Flow} 发布者连接，每个阶段有独立的线程数与缓冲区；
+ * 每个接口有自己的入口和查询阶段，在该接口的线程池中执行，只有该接口有空闲位置时才取下一个任务，
+ * 一个主机变慢或超时只会堆积它自己的任务，不会挡住其他接口的学号；各接口的查询结果汇合后进入解析阶段<br>
+ * <br>
+ * 配置项 pipeline，均可省略：
+ * <pre>
+ * "pipeline": {
+ *   "fetch":  {"parallelism": 1, "buffer": 64},
+ *   "parse":  {"threads": 2, "buffer": 64},
+ *   "diff":   {"threads": 1, "buffer": 64},
+ *   "render": {"threads": 1, "buffer": 64},
+ *   "notify": {"threads": 4, "buffer": 64}
+ * }
+ * </pre>
+ * fetch.parallelism 为每个接口同时在查询的任务数，默认为该接口的 maxConcurrency
+ */
+public class PollPipeline implements AutoCloseable {
+    private static final int DEFAULT_BUFFER = 64;
+    /**
+     * 关闭时等待各阶段处理完已接收任务的最长时间（毫秒）
+     */
+    private static final long CLOSE_TIMEOUT = 5000;
+    private final Map<Endpoint, SubmissionPublisher<PollJob>> sources = new HashMap<>();
+    private final SubmissionPublisher<PollJob> fetched;
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<ExecutorService> executors = new ArrayList<>();
+    /**
+     * 已提交还没有结束的任务，关闭时结束其中被丢弃的任务
+     */
+    private final Map<Student, PollJob> active = new ConcurrentHashMap<>();
+
+    /**
+     * @param endpoints 所有接口，每个接口一个查询阶段
+     */
+    public PollPipeline(Poller poller, Collection<Endpoint> endpoints, JSONObject config) {
+        JSONObject pipelineConfig = config.optJSONObject("pipeline");
+        if (pipelineConfig == null) pipelineConfig = new JSONObject();
+
+        JSONObject fetchConfig = stageConfig(pipelineConfig, "fetch");
+        fetched = new SubmissionPublisher<>(ForkJoinPool.commonPool(), DEFAULT_BUFFER);
+        for (Endpoint endpoint : endpoints) {
+            SubmissionPublisher<PollJob> source = new SubmissionPublisher<>(ForkJoinPool.commonPool(), fetchConfig.optInt("buffer", DEFAULT_BUFFER));
+            //窗口与接口的并发上限相同，任务只在接口有空闲线程时才离开入口
+            Stage fetch = new Stage("fetch-" + endpoint.getName(), poller::fetch, job -> endpoint::submit,
+                    Math.max(1, fetchConfig.optInt("parallelism", endpoint.getMaxConcurrency())), DEFAULT_BUFFER, source, fetched, false);
+            source.subscribe(fetch);
+            sources.put(endpoint, source);
+            stages.add(fetch);
+        }
+
+        SubmissionPublisher<PollJob> upstream = chain(fetched, pipelineConfig, "parse", poller::parse, 2, false);
+        upstream = chain(upstream, pipelineConfig, "diff", poller::diff, 1, false);
+        upstream = chain(upstream, pipelineConfig, "render", poller::render, 1, false);
+        chain(upstream, pipelineConfig, "notify", poller::notify, 4, true);
+    }
+
+    private SubmissionPublisher<PollJob> chain(SubmissionPublisher<PollJob> upstream, JSONObject pipelineConfig, String name,
+                                               Predicate<PollJob> function, int defaultThreads, boolean last) {
+        JSONObject stageConfig = stageConfig(pipelineConfig, name);
+        int threads = Math.max(1, stageConfig.optInt("threads", defaultThreads));
+        ExecutorService executor = newExecutor(name, threads);
+        executors.add(executor);
+        Stage stage = new Stage(name, function, job -> executor, threads,
+                stageConfig.optInt("buffer", DEFAULT_BUFFER), upstream, last);
+        upstream.subscribe(stage);
+        stages.add(stage);
+        return stage;
+    }
+
+    private static JSONObject stageConfig(JSONObject pipelineConfig, String name) {
+        JSONObject stageConfig = pipelineConfig.optJSONObject(name);
+        return stageConfig == null ? new JSONObject() : stageConfig;
+    }
+
+    private static ExecutorService newExecutor(String name, int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "stage-" + name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 提交一次查询，流水线入口缓冲区满时阻塞
+     *
+     * @param onComplete 查询结束（包括中途结束）时调用
+     * @return 该学号正在被其他地方查询时返回false，此时不会调用onComplete
+     */
+    public boolean submit(Student student, String time, Runnable onComplete) {
+        SubmissionPublisher<PollJob> source = sources.get(student.getEndpoint());
+        if (source == null) throw new IllegalArgumentException("Unknown endpoint " + student.getEndpoint().getName());
+        if (!student.tryBeginPoll()) return false;
+        PollJob job = new PollJob(student, time, () -> {
+            active.remove(student);
+            student.endPoll();
+            onComplete.run();
+        });
+        active.put(student, job);
+        try {
+            source.submit(job);
+        } catch (IllegalStateException e) {
+            //流水线已关闭
+            job.complete();
+        }
+        return true;
+    }
+
+    /**
+     * @return 每个阶段的统计信息
+     */
+    public JSONObject metrics() {
+        JSONObject metrics = new JSONObject();
+        for (Stage stage : stages) {
+            metrics.put(stage.getName(), stage.metrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * @return 一行文本形式的各阶段统计
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder("Pipeline:");
+        for (Stage stage : stages) {
+            JSONObject metrics = stage.metrics();
+            summary.append(' ').append(stage.getName())
+                    .append("[done ").append(metrics.getLong("processed"))
+                    .append(", queued ").append(metrics.getInt("queued"))
+                    .append(", ").append(String.format("%.1fms", metrics.getDouble("avgMillis")))
+                    .append(']');
+        }
+        return summary.toString();
+    }
+
+    /**
+     * 停止接收新任务，等待各阶段处理完已接收的任务，超时或仍在接口线程池中排队的任务直接结束，
+     * 保证每个任务的回调都会被调用，等待查询结束的调用方不会一直阻塞
+     */
+    @Override
+    public void close() {
+        sources.values().forEach(SubmissionPublisher::close);
+        fetched.close();
+        executors.forEach(ExecutorService::shutdown);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT);
+        try {
+            for (ExecutorService executor : executors) {
+                executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executors.forEach(ExecutorService::shutdownNow);
+        new ArrayList<>(active.values()).forEach(PollJob::complete);
+    }
+}
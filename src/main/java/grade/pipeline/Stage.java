@@ -0,0 +1,145 @@
+package grade.pipeline;
+
+import grade.PollJob;
+import org.json.JSONObject;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 流水线中的一个阶段<br>
+ * 作为订阅者最多同时向上游请求 parallelism 个任务，在本阶段的线程池中处理，处理完成后发布给下游；
+ * 下游缓冲区已满时发布会阻塞处理线程，不再向上游请求新任务，背压由此逐级传递到流水线入口<br>
+ * 处理函数返回false或抛出异常时，任务在本阶段结束，不再传给下游
+ */
+final class Stage extends SubmissionPublisher<PollJob> implements Flow.Processor<PollJob, PollJob> {
+    private final String name;
+    private final Predicate<PollJob> function;
+    private final Function<PollJob, Executor> executorSelector;
+    private final int parallelism;
+    private final SubmissionPublisher<PollJob> upstream;
+    /**
+     * 处理完成的任务发布到的地方，通常是本阶段自己；各接口的查询阶段共同发布到一个汇合点
+     */
+    private final SubmissionPublisher<PollJob> output;
+    private final boolean last;
+    private Flow.Subscription subscription;
+    private final long createdAt = System.nanoTime();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong passed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * @param name             阶段名称
+     * @param function         处理函数，返回是否需要继续传给下游
+     * @param executorSelector 为每个任务选择执行的线程池
+     * @param parallelism      最多同时处理的任务数
+     * @param bufferCapacity   发往下游的缓冲区大小
+     * @param upstream         上游发布者，用于统计排队任务数
+     * @param last             是否为最后一个阶段
+     */
+    Stage(String name, Predicate<PollJob> function, Function<PollJob, Executor> executorSelector, int parallelism,
+          int bufferCapacity, SubmissionPublisher<PollJob> upstream, boolean last) {
+        this(name, function, executorSelector, parallelism, bufferCapacity, upstream, null, last);
+    }
+
+    /**
+     * @param output 处理完成的任务发布到的发布者，为null时发布给本阶段的订阅者
+     */
+    Stage(String name, Predicate<PollJob> function, Function<PollJob, Executor> executorSelector, int parallelism,
+          int bufferCapacity, SubmissionPublisher<PollJob> upstream, SubmissionPublisher<PollJob> output, boolean last) {
+        super(ForkJoinPool.commonPool(), bufferCapacity);
+        this.name = name;
+        this.function = function;
+        this.executorSelector = executorSelector;
+        this.parallelism = parallelism;
+        this.upstream = upstream;
+        this.output = output == null ? this : output;
+        this.last = last;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(parallelism);
+    }
+
+    @Override
+    public void onNext(PollJob job) {
+        received.incrementAndGet();
+        inFlight.incrementAndGet();
+        try {
+            executorSelector.apply(job).execute(() -> process(job));
+        } catch (RejectedExecutionException e) {
+            //流水线或接口线程池正在关闭，任务就此结束，仍需补充请求保持窗口大小
+            inFlight.decrementAndGet();
+            job.complete();
+            subscription.request(1);
+        }
+    }
+
+    private void process(PollJob job) {
+        boolean next = false;
+        long start = System.nanoTime();
+        try {
+            next = function.test(job);
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            System.out.println("Stage " + name + " failed: " + e);
+        } finally {
+            busyNanos.addAndGet(System.nanoTime() - start);
+            processed.incrementAndGet();
+            inFlight.decrementAndGet();
+        }
+        if (next && !last) {
+            passed.incrementAndGet();
+            try {
+                //下游缓冲区满时在此阻塞
+                output.submit(job);
+            } catch (IllegalStateException | RejectedExecutionException e) {
+                //下游已关闭
+                job.complete();
+            }
+        } else {
+            job.complete();
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        closeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        close();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return 本阶段的统计信息：处理数、吞吐量、处理中与排队中的任务数等
+     */
+    JSONObject metrics() {
+        long processed = this.processed.get();
+        double seconds = (System.nanoTime() - createdAt) / 1e9;
+        return new JSONObject()
+                .put("received", received.get())
+                .put("processed", processed)
+                .put("passed", passed.get())
+                .put("errors", errors.get())
+                .put("inFlight", inFlight.get())
+                .put("queued", upstream.estimateMaximumLag())
+                .put("throughputPerSecond", seconds > 0 ? processed / seconds : 0)
+                .put("avgMillis", processed > 0 ? busyNanos.get() / 1e6 / processed : 0);
+    }
+}
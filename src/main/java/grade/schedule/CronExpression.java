@@ -0,0 +1,126 @@
+package grade.schedule;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+
+/**
+ * 五段式cron表达式：分 时 日 月 周<br>
+ * 每段支持 *、数字、范围 a-b、列表 a,b 和步长 * /n、a-b/n；周的取值为0-7，0和7都表示周日<br>
+ * 与标准cron相同，日和周都有限制时满足其一即可，否则两者都要满足；以 * 开头的字段（包括 * /n）不算限制
+ */
+public final class CronExpression {
+    /**
+     * 向后查找的最大范围，超出范围认为永远不会匹配
+     */
+    private static final int MAX_SEARCH_YEARS = 5;
+    private final String expression;
+    private final BitSet minutes;
+    private final BitSet hours;
+    private final BitSet daysOfMonth;
+    private final BitSet months;
+    private final BitSet daysOfWeek;
+    private final boolean dayOfMonthRestricted;
+    private final boolean dayOfWeekRestricted;
+
+    private CronExpression(String expression) {
+        this.expression = expression;
+        String[] fields = expression.trim().split("\\s+");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("Cron expression must have 5 fields: " + expression);
+        }
+        minutes = parseField(fields[0], 0, 59);
+        hours = parseField(fields[1], 0, 23);
+        daysOfMonth = parseField(fields[2], 1, 31);
+        months = parseField(fields[3], 1, 12);
+        daysOfWeek = parseField(fields[4], 0, 7);
+        if (daysOfWeek.get(7)) daysOfWeek.set(0);
+        dayOfMonthRestricted = !fields[2].startsWith("*");
+        dayOfWeekRestricted = !fields[4].startsWith("*");
+    }
+
+    /**
+     * @throws IllegalArgumentException 表达式格式错误
+     */
+    public static CronExpression parse(String expression) {
+        return new CronExpression(expression);
+    }
+
+    private static BitSet parseField(String field, int min, int max) {
+        BitSet bits = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = Integer.parseInt(part.substring(slash + 1));
+                part = part.substring(0, slash);
+            }
+            int from;
+            int to;
+            if (part.equals("*")) {
+                from = min;
+                to = max;
+            } else if (part.indexOf('-') > 0) {
+                from = Integer.parseInt(part.substring(0, part.indexOf('-')));
+                to = Integer.parseInt(part.substring(part.indexOf('-') + 1));
+            } else {
+                from = Integer.parseInt(part);
+                to = slash >= 0 ? max : from;
+            }
+            if (from < min || to > max || from > to || step < 1) {
+                throw new IllegalArgumentException("Invalid cron field: " + field);
+            }
+            for (int i = from; i <= to; i += step) {
+                bits.set(i);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * @return 指定时间所在的这一分钟是否匹配
+     */
+    public boolean matches(LocalDateTime time) {
+        return minutes.get(time.getMinute()) && hours.get(time.getHour())
+               && months.get(time.getMonthValue()) && matchesDay(time);
+    }
+
+    private boolean matchesDay(LocalDateTime time) {
+        boolean dom = daysOfMonth.get(time.getDayOfMonth());
+        boolean dow = daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+        if (dayOfMonthRestricted && dayOfWeekRestricted) {
+            return dom || dow;
+        }
+        return dom && dow;
+    }
+
+    /**
+     * 查找不早于指定时间的第一个匹配时刻
+     *
+     * @return 匹配时刻，精确到分钟；如果time所在的分钟匹配则原样返回time；永远不会匹配时返回null
+     */
+    public LocalDateTime next(LocalDateTime time) {
+        if (matches(time)) return time;
+        LocalDateTime t = time.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        LocalDateTime limit = time.plusYears(MAX_SEARCH_YEARS);
+        while (t.isBefore(limit)) {
+            if (!months.get(t.getMonthValue())) {
+                t = t.withDayOfMonth(1).withHour(0).withMinute(0).plusMonths(1);
+            } else if (!matchesDay(t)) {
+                t = t.withHour(0).withMinute(0).plusDays(1);
+            } else if (!hours.get(t.getHour())) {
+                t = t.withMinute(0).plusHours(1);
+            } else if (!minutes.get(t.getMinute())) {
+                t = t.plusMinutes(1);
+            } else {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
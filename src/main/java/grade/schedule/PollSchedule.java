@@ -0,0 +1,108 @@
+package grade.schedule;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按时间窗口决定查询间隔<br>
+ * 配置项 schedule 为时间窗口数组，按顺序取第一个匹配当前时间的窗口：
+ * <pre>
+ * "schedule": [
+ *   {"window": "* 8-22 * 1,6,7 *", "interval": 30000},
+ *   {"window": "* 8-22 * * 1-5", "interval": 3600000}
+ * ]
+ * </pre>
+ * window 为cron表达式，匹配的每一分钟都属于该窗口；interval 为窗口内的查询间隔（毫秒）<br>
+ * 未配置 schedule 时全天以 checkDelay 为间隔查询；配置后，不在任何窗口内的时间完全不查询
+ */
+public class PollSchedule {
+    private record Window(CronExpression cron, long interval) {
+    }
+
+    private final List<Window> windows;
+    private final long defaultInterval;
+
+    private PollSchedule(List<Window> windows, long defaultInterval) {
+        this.windows = windows;
+        this.defaultInterval = defaultInterval;
+    }
+
+    /**
+     * @throws IllegalArgumentException 时间窗口配置错误
+     */
+    public static PollSchedule fromConfig(JSONObject config) {
+        long checkDelay = config.getLong("checkDelay");
+        List<Window> windows = new ArrayList<>();
+        JSONArray schedule = config.optJSONArray("schedule");
+        if (schedule != null) {
+            for (int i = 0; i < schedule.length(); i++) {
+                JSONObject window = schedule.getJSONObject(i);
+                windows.add(new Window(CronExpression.parse(window.getString("window")), window.optLong("interval", checkDelay)));
+            }
+        }
+        return new PollSchedule(windows, checkDelay);
+    }
+
+    /**
+     * @return time是否在某个查询窗口内，未配置 schedule 时总是true
+     */
+    public boolean isActive(LocalDateTime time) {
+        return windows.isEmpty() || activeWindow(time) != null;
+    }
+
+    /**
+     * @return 第一次查询的时间，当前在窗口内时为time本身
+     */
+    public LocalDateTime firstPoll(LocalDateTime time) {
+        return nextActive(time);
+    }
+
+    /**
+     * @param lastPoll 上一次查询完成的时间
+     * @return 下一次查询的时间，永远不会再进入窗口时返回null
+     */
+    public LocalDateTime nextPoll(LocalDateTime lastPoll) {
+        return nextPoll(lastPoll, 1);
+    }
+
+    /**
+     * @param lastPoll 上一次查询完成的时间
+     * @param factor   当前窗口查询间隔的倍数，见 {@link PriorityPolicy}
+     * @return 下一次查询的时间，永远不会再进入窗口时返回null
+     */
+    public LocalDateTime nextPoll(LocalDateTime lastPoll, double factor) {
+        long interval = defaultInterval;
+        if (!windows.isEmpty()) {
+            Window window = activeWindow(lastPoll);
+            if (window == null) return nextActive(lastPoll);
+            interval = window.interval;
+        }
+        return nextActive(lastPoll.plusNanos(Math.round(interval * factor * 1_000_000L)));
+    }
+
+    /**
+     * @return 不早于time的第一个处于窗口内的时刻
+     */
+    private LocalDateTime nextActive(LocalDateTime time) {
+        if (windows.isEmpty()) return time;
+        LocalDateTime earliest = null;
+        for (Window window : windows) {
+            LocalDateTime next = window.cron.next(time);
+            if (next != null && (earliest == null || next.isBefore(earliest))) {
+                earliest = next;
+            }
+        }
+        return earliest;
+    }
+
+    private Window activeWindow(LocalDateTime time) {
+        for (Window window : windows) {
+            if (window.cron.matches(time)) return window;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,66 @@
+package grade.schedule;
+
+import grade.Student;
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * 按成绩变化的可能性分配查询频率<br>
+ * 成绩刚刚变化的学号（通常说明学院正在录入成绩）权重为 maxWeight，之后每经过 halfLife 毫秒，
+ * 超出 minWeight 的部分减半；从未变化过的学号权重为 minWeight<br>
+ * 学号的查询间隔乘以 平均权重/自身权重，所有学号的查询频率之和与统一间隔时相同，
+ * 不增加对教务系统的请求总量<br>
+ * <br>
+ * 配置项 priority，均可省略：
+ * <pre>"priority": {"maxWeight": 8, "minWeight": 1, "halfLife": 3600000}</pre>
+ */
+public class PriorityPolicy {
+    private static final double DEFAULT_MAX_WEIGHT = 8;
+    private static final double DEFAULT_MIN_WEIGHT = 1;
+    private static final long DEFAULT_HALF_LIFE = 60 * 60 * 1000L;
+    private final double maxWeight;
+    private final double minWeight;
+    private final long halfLife;
+
+    private PriorityPolicy(JSONObject config) {
+        this.minWeight = Math.max(Double.MIN_NORMAL, config.optDouble("minWeight", DEFAULT_MIN_WEIGHT));
+        this.maxWeight = Math.max(minWeight, config.optDouble("maxWeight", DEFAULT_MAX_WEIGHT));
+        this.halfLife = Math.max(1, config.optLong("halfLife", DEFAULT_HALF_LIFE));
+    }
+
+    /**
+     * @return 优先级策略，未配置 priority 时返回null，所有学号使用相同的间隔
+     */
+    public static PriorityPolicy fromConfig(JSONObject config) {
+        JSONObject priority = config.optJSONObject("priority");
+        if (priority == null) {
+            return config.optBoolean("priority", false) ? new PriorityPolicy(new JSONObject()) : null;
+        }
+        return new PriorityPolicy(priority);
+    }
+
+    /**
+     * @param lastChangedAt 上次成绩变化的时间戳，0表示从未变化
+     * @param now           当前时间戳
+     */
+    public double weight(long lastChangedAt, long now) {
+        if (lastChangedAt <= 0) return minWeight;
+        double halfLives = Math.max(0, now - lastChangedAt) / (double) halfLife;
+        return minWeight + (maxWeight - minWeight) * Math.pow(0.5, halfLives);
+    }
+
+    /**
+     * @param student  要安排下次查询的学号
+     * @param students 共享请求总量的所有学号
+     * @return 查询间隔的倍数，小于1表示比统一间隔更频繁
+     */
+    public double intervalFactor(Student student, List<Student> students) {
+        long now = System.currentTimeMillis();
+        double total = 0;
+        for (Student s : students) {
+            total += weight(s.getLastChangedAt(), now);
+        }
+        return total / (students.size() * weight(student.getLastChangedAt(), now));
+    }
+}
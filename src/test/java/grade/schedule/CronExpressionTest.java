@@ -0,0 +1,94 @@
+package grade.schedule;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CronExpressionTest {
+    private static LocalDateTime at(int month, int day, int hour, int minute) {
+        return LocalDateTime.of(2026, month, day, hour, minute);
+    }
+
+    @Test
+    void matchesMinuteAndHourFields() {
+        CronExpression cron = CronExpression.parse("*/15 8-22 * * *");
+        assertTrue(cron.matches(at(10, 19, 8, 15)));
+        assertTrue(cron.matches(at(10, 19, 22, 45)));
+        assertFalse(cron.matches(at(10, 19, 8, 16)));
+        assertFalse(cron.matches(at(10, 19, 23, 0)));
+    }
+
+    @Test
+    void weekdaySevenIsSunday() {
+        //2026-10-18 是周日
+        assertTrue(CronExpression.parse("0 0 * * 7").matches(at(10, 18, 0, 0)));
+        assertTrue(CronExpression.parse("0 0 * * 0").matches(at(10, 18, 0, 0)));
+        assertFalse(CronExpression.parse("0 0 * * 7").matches(at(10, 19, 0, 0)));
+    }
+
+    @Test
+    void restrictedDayAndWeekdayMatchEither() {
+        CronExpression cron = CronExpression.parse("0 0 13 * 5");
+        //周五但不是13日
+        assertTrue(cron.matches(at(10, 16, 0, 0)));
+        //13日但不是周五
+        assertTrue(cron.matches(at(10, 13, 0, 0)));
+        assertFalse(cron.matches(at(10, 14, 0, 0)));
+    }
+
+    @Test
+    void stepFromStarInDayIsNotARestriction() {
+        //单数日并且是周一
+        CronExpression cron = CronExpression.parse("0 0 */2 * 1");
+        assertTrue(cron.matches(at(10, 19, 0, 0)));
+        assertFalse(cron.matches(at(10, 26, 0, 0)));
+        assertFalse(cron.matches(at(10, 21, 0, 0)));
+    }
+
+    @Test
+    void stepFromStarInWeekdayIsNotARestriction() {
+        //1日并且是周日、周二、周四或周六
+        CronExpression cron = CronExpression.parse("0 0 1 * */2");
+        assertTrue(cron.matches(at(10, 1, 0, 0)));
+        assertTrue(cron.matches(at(11, 1, 0, 0)));
+        assertFalse(cron.matches(LocalDateTime.of(2027, 2, 1, 0, 0)));
+        assertFalse(cron.matches(at(10, 4, 0, 0)));
+    }
+
+    @Test
+    void nextReturnsMatchingTimeUnchanged() {
+        LocalDateTime time = LocalDateTime.of(2026, 10, 19, 9, 30, 15);
+        assertEquals(time, CronExpression.parse("30 9 * * 1-5").next(time));
+    }
+
+    @Test
+    void nextSkipsToFollowingMatch() {
+        CronExpression cron = CronExpression.parse("30 9 * * 1-5");
+        //周六上午之后的下一个工作日
+        assertEquals(at(10, 19, 9, 30), cron.next(at(10, 17, 10, 0)));
+        assertEquals(at(10, 20, 9, 30), cron.next(LocalDateTime.of(2026, 10, 19, 9, 30, 59).plusSeconds(1)));
+    }
+
+    @Test
+    void nextCrossesMonthsAndYears() {
+        assertEquals(LocalDateTime.of(2027, 2, 1, 0, 0), CronExpression.parse("0 0 1 2 *").next(at(3, 1, 0, 0)));
+    }
+
+    @Test
+    void nextReturnsNullWhenNeverMatching() {
+        assertNull(CronExpression.parse("0 0 30 2 *").next(at(1, 1, 0, 0)));
+    }
+
+    @Test
+    void rejectsInvalidExpressions() {
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("* * * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("60 * * * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("* * 0 * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("* * * * 8"));
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("5-1 * * * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("*/0 * * * *"));
+        assertThrows(IllegalArgumentException.class, () -> CronExpression.parse("a * * * *"));
+    }
+}
@@ -0,0 +1,68 @@
+package grade.schedule;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PollScheduleTest {
+    private static PollSchedule schedule(JSONArray windows) {
+        JSONObject config = new JSONObject().put("checkDelay", 10000);
+        if (windows != null) config.put("schedule", windows);
+        return PollSchedule.fromConfig(config);
+    }
+
+    private static JSONObject window(String cron, long interval) {
+        return new JSONObject().put("window", cron).put("interval", interval);
+    }
+
+    @Test
+    void withoutWindowsPollsAllDayEveryCheckDelay() {
+        PollSchedule schedule = schedule(null);
+        LocalDateTime time = LocalDateTime.of(2026, 10, 19, 3, 0);
+        assertTrue(schedule.isActive(time));
+        assertEquals(time, schedule.firstPoll(time));
+        assertEquals(time.plusSeconds(10), schedule.nextPoll(time));
+        assertEquals(time.plusSeconds(5), schedule.nextPoll(time, 0.5));
+    }
+
+    @Test
+    void firstMatchingWindowSetsInterval() {
+        PollSchedule schedule = schedule(new JSONArray()
+                .put(window("* 8-21 * * 1-5", 30000))
+                .put(window("* 8-21 * * *", 3600000)));
+        //周一
+        LocalDateTime weekday = LocalDateTime.of(2026, 10, 19, 10, 0);
+        assertEquals(weekday.plusSeconds(30), schedule.nextPoll(weekday));
+        //周六只匹配第二个窗口
+        LocalDateTime weekend = LocalDateTime.of(2026, 10, 17, 10, 0);
+        assertEquals(weekend.plusHours(1), schedule.nextPoll(weekend));
+    }
+
+    @Test
+    void outsideWindowsWaitsForNextWindow() {
+        PollSchedule schedule = schedule(new JSONArray().put(window("* 8-21 * * 1-5", 30000)));
+        LocalDateTime night = LocalDateTime.of(2026, 10, 19, 3, 0);
+        assertFalse(schedule.isActive(night));
+        assertEquals(LocalDateTime.of(2026, 10, 19, 8, 0), schedule.firstPoll(night));
+        //周五最后一次查询之后，下一次在周一窗口打开时
+        LocalDateTime fridayEvening = LocalDateTime.of(2026, 10, 23, 21, 59, 50);
+        assertEquals(LocalDateTime.of(2026, 10, 26, 8, 0), schedule.nextPoll(fridayEvening));
+    }
+
+    @Test
+    void windowWithoutIntervalUsesCheckDelay() {
+        PollSchedule schedule = schedule(new JSONArray().put(new JSONObject().put("window", "* * * * *")));
+        LocalDateTime time = LocalDateTime.of(2026, 10, 19, 10, 0);
+        assertEquals(time.plusSeconds(10), schedule.nextPoll(time));
+    }
+
+    @Test
+    void windowThatNeverOpensStopsPolling() {
+        PollSchedule schedule = schedule(new JSONArray().put(window("0 0 30 2 *", 30000)));
+        assertNull(schedule.firstPoll(LocalDateTime.of(2026, 10, 19, 10, 0)));
+    }
+}
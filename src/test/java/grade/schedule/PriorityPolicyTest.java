@@ -0,0 +1,83 @@
+package grade.schedule;
+
+import grade.Endpoint;
+import grade.Student;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PriorityPolicyTest {
+    private static final long HALF_LIFE = 24 * 60 * 60 * 1000L;
+
+    private static PriorityPolicy policy() {
+        return PriorityPolicy.fromConfig(new JSONObject().put("priority",
+                new JSONObject().put("maxWeight", 8).put("minWeight", 1).put("halfLife", HALF_LIFE)));
+    }
+
+    @Test
+    void disabledUnlessConfigured() {
+        assertNull(PriorityPolicy.fromConfig(new JSONObject()));
+        assertNull(PriorityPolicy.fromConfig(new JSONObject().put("priority", false)));
+        assertNotNull(PriorityPolicy.fromConfig(new JSONObject().put("priority", true)));
+    }
+
+    @Test
+    void weightDecaysTowardMinWeight() {
+        PriorityPolicy policy = policy();
+        long now = 10 * HALF_LIFE;
+        assertEquals(1, policy.weight(0, now), 1e-9);
+        assertEquals(8, policy.weight(now, now), 1e-9);
+        assertEquals(4.5, policy.weight(now - HALF_LIFE, now), 1e-9);
+        assertEquals(2.75, policy.weight(now - 2 * HALF_LIFE, now), 1e-9);
+        //时钟回拨时不超过 maxWeight
+        assertEquals(8, policy.weight(now + HALF_LIFE, now), 1e-9);
+    }
+
+    @Test
+    void intervalFactorKeepsTotalRate() {
+        JSONObject config = new JSONObject()
+                .put("requestURL", "https://grade.example/query?su=")
+                .put("studentID", new JSONArray(List.of("001", "002")))
+                .put("cookie", new JSONArray(List.of("a", "b")));
+        Map<String, Endpoint> endpoints = Endpoint.fromConfig(config);
+        try {
+            List<Student> students = Student.fromConfig(config, endpoints);
+            Student hot = students.get(0);
+            Student idle = students.get(1);
+            hot.setLastChangedAt(System.currentTimeMillis());
+
+            PriorityPolicy policy = policy();
+            double hotFactor = policy.intervalFactor(hot, students);
+            double idleFactor = policy.intervalFactor(idle, students);
+            //平均权重 4.5
+            assertEquals(4.5 / 8, hotFactor, 1e-3);
+            assertEquals(4.5, idleFactor, 1e-3);
+            //查询频率之和与统一间隔时相同
+            assertEquals(students.size(), 1 / hotFactor + 1 / idleFactor, 1e-3);
+        } finally {
+            endpoints.values().forEach(Endpoint::shutdown);
+        }
+    }
+
+    @Test
+    void equalWeightsKeepInterval() {
+        JSONObject config = new JSONObject()
+                .put("requestURL", "https://grade.example/query?su=")
+                .put("studentID", new JSONArray(List.of("001", "002", "003")))
+                .put("cookie", new JSONArray(List.of("a", "b", "c")));
+        Map<String, Endpoint> endpoints = Endpoint.fromConfig(config);
+        try {
+            List<Student> students = Student.fromConfig(config, endpoints);
+            for (Student student : students) {
+                assertEquals(1, policy().intervalFactor(student, students), 1e-9);
+            }
+        } finally {
+            endpoints.values().forEach(Endpoint::shutdown);
+        }
+    }
+}